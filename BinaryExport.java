@@ -0,0 +1,70 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+
+/*
+ * Convert BinarySink output back into the text files a TextSink writes
+ *
+ * Usage: BinaryExport <geo.bin> <sir.txt> <geo.txt>
+ * Each snapshot in geo.bin becomes a SnapshotCity, and Helper prints its SIR
+ * and geo lines exactly as it does during a text run. sir.bin only holds the
+ * state counts LakeCluster reads, so it is not an input here.
+ */
+public class BinaryExport {
+
+    public static void main(String[] args) throws IOException {
+        String inFile = BinarySink.binaryFile(LakeTown.FILE_GEO);
+        String sirFile = LakeTown.FILE_SIR.replace(".txt", "_export.txt");
+        String geoFile = LakeTown.FILE_GEO.replace(".txt", "_export.txt");
+        if(args.length >= 1){
+            inFile = args[0];
+        }
+        if(args.length >= 2){
+            sirFile = args[1];
+        }
+        if(args.length >= 3){
+            geoFile = args[2];
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile), BinarySink.BUFFER_SIZE));
+        int magic = in.readInt();
+        if(magic != BinarySink.MAGIC_GEO){
+            in.close();
+            throw new IOException("Not a snapshot file from BinarySink: " + inFile);
+        }
+        int width = in.readInt();
+        String[] names = new String[width];
+        double[] lats = new double[width];
+        double[] lngs = new double[width];
+        for(int lidx = 0; lidx < width; lidx++){
+            names[lidx] = in.readUTF();
+            lats[lidx] = in.readDouble();
+            lngs[lidx] = in.readDouble();
+        }
+        SnapshotCity city = new SnapshotCity(new SimContext(0), "Lake Town", names, lats, lngs, LakeTown.getOutbreak().getStrains().get(0));
+        int[] counts = new int[width * SnapshotCity.KINDS];
+        boolean[] contaminated = new boolean[width];
+        int rows = 0;
+        try{
+            while(true){
+                int time = in.readInt();
+                for(int lidx = 0; lidx < width; lidx++){
+                    contaminated[lidx] = (in.readByte() != 0);
+                    for(int kind = 0; kind < SnapshotCity.KINDS; kind++){
+                        counts[lidx * SnapshotCity.KINDS + kind] = in.readInt();
+                    }
+                }
+                city.set(time, counts, contaminated);
+                Helper.printCityLine(sirFile, city);
+                Helper.printLocationLine(geoFile, city);
+                rows++;
+            }
+        }
+        catch(EOFException e){
+            // End of records
+        }
+        in.close();
+        Helper.closeAllFiles();
+        System.out.println("Exported " + rows + " snapshots from " + inFile + " to " + sirFile + " and " + geoFile + ".");
+    }
+
+}
@@ -0,0 +1,254 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Compact binary output with an optional background writer thread
+ * SIR and geo snapshots are fixed-width records so a day or an hour of output
+ * is a few array writes; BinaryExport turns them back into text.
+ *
+ * sir.bin: magic, state count, state names, then per snapshot
+ *          time and one count per state
+ * geo.bin: magic, location count, per location name, lat and lng, then per
+ *          snapshot time and per location the contaminated flag and one count
+ *          per SnapshotCity kind, enough to rebuild the City Helper prints
+ */
+public class BinarySink implements OutputSink {
+
+    public static final int MAGIC_SIR = 0x46534952;
+    public static final int MAGIC_GEO = 0x46534e50;
+    public static int BUFFER_SIZE = 1 << 20;
+    public static int QUEUE_SIZE = 1024;
+
+    private static final int SIR = 0;
+    private static final int GEO = 1;
+    private static final int CASES = 2;
+    private static final int ENC_CASES = 3;
+    private static final Chunk DONE = new Chunk(-1, null);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private LocationIndex index;
+    private List<Person> people;
+    private OutputStream[] streams = new OutputStream[4];
+    private BlockingQueue<Chunk> queue = null;
+    private Thread writer = null;
+    private volatile IOException failure = null;
+    private int[] stateCounts;
+    private int[] kindCounts;
+    private boolean[] contaminated;
+
+    public BinarySink(SimContext context, City city, boolean async){
+        this(context, city.getPeople(), async);
+    }
+
+    /*
+     * Sink for a run without a City, written through writeSnapshot only
+     */
+    public BinarySink(SimContext context, List<Person> people, boolean async){
+        this.index = context.getIndex();
+        this.people = people;
+        this.stateCounts = new int[Person.State.values().length];
+        this.kindCounts = new int[index.size() * SnapshotCity.KINDS];
+        this.contaminated = new boolean[index.size()];
+        try{
+            streams[SIR] = open(binaryFile(context.getSirFile()));
+            streams[GEO] = open(binaryFile(context.getGeoFile()));
+            streams[CASES] = open(context.getCasesFile());
+            streams[ENC_CASES] = open(context.getEncCasesFile());
+        }
+        catch(IOException e){
+            throw new RuntimeException("Could not open binary output: " + e.getMessage(), e);
+        }
+        if(async){
+            queue = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+            writer = new Thread(new Runnable(){
+                public void run(){
+                    drain();
+                }
+            }, "BinarySink-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        writeHeaders();
+    }
+
+    public static String binaryFile(String textFile){
+        int dot = textFile.lastIndexOf('.');
+        String base = (dot < 0) ? textFile : textFile.substring(0, dot);
+        return base + ".bin";
+    }
+
+    private static OutputStream open(String file) throws IOException {
+        File f = new File(file);
+        if(f.getParentFile() != null){
+            f.getParentFile().mkdirs();
+        }
+        return new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE);
+    }
+
+    private void writeHeaders(){
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC_SIR);
+            out.writeInt(stateCounts.length);
+            for(Person.State state : Person.State.values()){
+                out.writeUTF(state.toString());
+            }
+            emit(SIR, bytes.toByteArray());
+            bytes.reset();
+            out.writeInt(MAGIC_GEO);
+            out.writeInt(index.size());
+            for(int lidx = 0; lidx < index.size(); lidx++){
+                out.writeUTF(index.getLocation(lidx).getName());
+                out.writeDouble(index.getLat(lidx));
+                out.writeDouble(index.getLng(lidx));
+            }
+            emit(GEO, bytes.toByteArray());
+        }
+        catch(IOException e){
+            throw new RuntimeException("Could not write binary headers: " + e.getMessage(), e);
+        }
+    }
+
+    public void writeCity(City city){
+        Arrays.fill(stateCounts, 0);
+        for(Person p : people){
+            stateCounts[p.getState().ordinal()]++;
+        }
+        writeStateCounts(city.getTime());
+    }
+
+    private void writeStateCounts(int time){
+        ByteBuffer buf = ByteBuffer.allocate(4 * (1 + stateCounts.length));
+        buf.putInt(time);
+        for(int count : stateCounts){
+            buf.putInt(count);
+        }
+        emit(SIR, buf.array());
+    }
+
+    public void writeLocations(City city){
+        Arrays.fill(kindCounts, 0);
+        for(Person p : people){
+            int lidx = index.getOrdinal(p.getLocation());
+            if(lidx < 0){
+                continue;
+            }
+            kindCounts[lidx * SnapshotCity.KINDS + SnapshotCity.kindOf(p)]++;
+        }
+        for(int lidx = 0; lidx < contaminated.length; lidx++){
+            contaminated[lidx] = index.getLocation(lidx).isInfected();
+        }
+        writeOccupancy(city.getTime(), kindCounts, contaminated);
+    }
+
+    private void writeOccupancy(int time, int[] counts, boolean[] contaminated){
+        ByteBuffer buf = ByteBuffer.allocate(4 + (1 + 4 * SnapshotCity.KINDS) * contaminated.length);
+        buf.putInt(time);
+        for(int lidx = 0; lidx < contaminated.length; lidx++){
+            buf.put((byte)(contaminated[lidx] ? 1 : 0));
+            for(int kind = 0; kind < SnapshotCity.KINDS; kind++){
+                buf.putInt(counts[lidx * SnapshotCity.KINDS + kind]);
+            }
+        }
+        emit(GEO, buf.array());
+    }
+
+    public void writeSnapshot(int time, int[] counts, boolean[] contaminated){
+        Arrays.fill(stateCounts, 0);
+        for(int cell = 0; cell < counts.length; cell++){
+            int kind = cell % SnapshotCity.KINDS;
+            Person.State state = (kind == SnapshotCity.INFECTED) ? Person.State.INFECTED : (kind == SnapshotCity.RESISTANT) ? Person.State.RESISTANT : Person.State.SUSCEPTIBLE;
+            stateCounts[state.ordinal()] += counts[cell];
+        }
+        writeStateCounts(time);
+        writeOccupancy(time, counts, contaminated);
+    }
+
+    public void writeCase(String line){
+        emit(CASES, (line + "\n").getBytes(UTF8));
+    }
+
+    public void writeEncodedCase(String line){
+        emit(ENC_CASES, (line + "\n").getBytes(UTF8));
+    }
+
+    private void emit(int target, byte[] bytes){
+        if(failure != null){
+            throw new RuntimeException("Binary output failed: " + failure.getMessage(), failure);
+        }
+        if(queue == null){
+            write(new Chunk(target, bytes));
+            return;
+        }
+        try{
+            queue.put(new Chunk(target, bytes));
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Chunk chunk){
+        try{
+            streams[chunk.target].write(chunk.bytes);
+        }
+        catch(IOException e){
+            failure = e;
+        }
+    }
+
+    private void drain(){
+        try{
+            while(true){
+                Chunk chunk = queue.take();
+                if(chunk == DONE){
+                    break;
+                }
+                write(chunk);
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void close(){
+        if(writer != null){
+            try{
+                queue.put(DONE);
+                writer.join();
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        for(OutputStream stream : streams){
+            try{
+                stream.close();
+            }
+            catch(IOException e){
+                failure = e;
+            }
+        }
+        Helper.closeAllFiles();
+        if(failure != null){
+            System.out.println("Binary output failed: " + failure.getMessage());
+        }
+    }
+
+    private static class Chunk {
+        private int target;
+        private byte[] bytes;
+        public Chunk(int target, byte[] bytes){
+            this.target = target;
+            this.bytes = bytes;
+        }
+    }
+
+}
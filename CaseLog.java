@@ -0,0 +1,171 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * Case reports gathered while the outbreak runs
+ * The HistoryStore reports each state change as it is appended. When someone
+ * first shows up infected their susceptible history is complete, so their
+ * lunches and restaurant visits are encoded then, a run at a time, using
+ * location names and short codes worked out once. Recovery only stamps the
+ * hour, which leaves findAllCases with nothing but the final formatting.
+ */
+public class CaseLog {
+
+    private static final int SUSCEPTIBLE = Person.State.SUSCEPTIBLE.ordinal();
+    private static final int INFECTED = Person.State.INFECTED.ordinal();
+    private static final int RESISTANT = Person.State.RESISTANT.ordinal();
+
+    private HistoryStore history;
+    private String[] names;
+    private String[] codes;
+    private int[] sickOn;
+    private int[] betterOn;
+    private String[] lunches;
+    private String[] visits;
+
+    public CaseLog(HistoryStore history, LocationIndex index, int n){
+        this.history = history;
+        List<Location> locations = index.getLocations();
+        names = new String[locations.size()];
+        codes = new String[locations.size()];
+        for(int lidx = 0; lidx < names.length; lidx++){
+            names[lidx] = locations.get(lidx).getName();
+            codes[lidx] = shortCode(names[lidx]);
+        }
+        sickOn = new int[n];
+        betterOn = new int[n];
+        Arrays.fill(sickOn, -1);
+        Arrays.fill(betterOn, -1);
+        lunches = new String[n];
+        visits = new String[n];
+        history.setCases(this);
+    }
+
+    /*
+     * Number part of a name, e.g. "2" for "Restaurant 2 (R)" or "143" for "House 143"
+     */
+    private static String shortCode(String name){
+        int start = name.indexOf(' ') + 1;
+        if(start == 0){
+            return name;
+        }
+        int end = name.indexOf(' ', start);
+        return (end < 0) ? name.substring(start) : name.substring(start, end);
+    }
+
+    /*
+     * Called by the store before it appends a run with a new state
+     */
+    public void onTransition(int pidx, int time, int state){
+        onTransition(pidx, time, state, history.getRunCount(pidx));
+    }
+
+    /*
+     * Rebuild from a store that was filled without this log, e.g. a restored checkpoint
+     */
+    public void replay(){
+        for(int pidx = 0; pidx < sickOn.length; pidx++){
+            int count = history.getRunCount(pidx);
+            for(int run = 1; run < count; run++){
+                if(history.getRunState(pidx, run) != history.getRunState(pidx, run - 1)){
+                    onTransition(pidx, history.getRunTime(pidx, run), history.getRunState(pidx, run), run);
+                }
+            }
+        }
+    }
+
+    private void onTransition(int pidx, int time, int state, int runs){
+        if(state == INFECTED && sickOn[pidx] < 0){
+            sickOn[pidx] = time;
+            collect(pidx, time, runs);
+        }
+        else if(state == RESISTANT && betterOn[pidx] < 0){
+            betterOn[pidx] = time;
+        }
+    }
+
+    /*
+     * Lunch locations while susceptible and lunch-hour visits, over the given
+     * runs and the hours before end, the way describeCase and encodeCase read them
+     */
+    private void collect(int pidx, int end, int runs){
+        StringBuilder lunchText = new StringBuilder();
+        StringBuilder visitText = new StringBuilder();
+        int first = history.getFirstTime();
+        int visitHour = LakeTown.AdultRoutine.LUNCH_HOUR;
+        int lunchHour = (visitHour + 1) % 24;
+        for(int run = 0; run < runs; run++){
+            int from = Math.max(first, history.getRunTime(pidx, run));
+            int to = (run + 1 < runs) ? history.getRunTime(pidx, run + 1) : end;
+            int lidx = history.getRunLocation(pidx, run);
+            for(int h = nextHour(from, visitHour); h < to; h += 24){
+                if(visitText.length() > 0){
+                    visitText.append(",");
+                }
+                visitText.append(codes[lidx]);
+            }
+            if(history.getRunState(pidx, run) == SUSCEPTIBLE){
+                for(int h = nextHour(from, lunchHour); h < to; h += 24){
+                    lunchText.append(names[lidx]).append(",");
+                }
+            }
+        }
+        lunches[pidx] = lunchText.toString();
+        visits[pidx] = visitText.toString();
+    }
+
+    /*
+     * First time at or after from that falls on the given hour of day
+     */
+    private static int nextHour(int from, int hour){
+        return from + ((hour - from % 24) + 24) % 24;
+    }
+
+    /*
+     * Same line as LakeTown.describeCase
+     */
+    public String describe(int c, int age, Location home, Location work, int pidx){
+        finish(pidx);
+        int feltBetterOn = (betterOn[pidx] < 0) ? history.getLastTime() + 1 : betterOn[pidx];
+        StringBuilder out = new StringBuilder();
+        out.append("Case ").append(c).append(",");
+        out.append(age).append(",");
+        out.append(sickOn[pidx]).append(",");
+        out.append(feltBetterOn).append(",");
+        out.append(home.getName()).append("%");
+        out.append((work != null) ? work.getName() : "---").append("%");
+        out.append(lunches[pidx]);
+        return out.toString();
+    }
+
+    /*
+     * Same line as LakeTown.encodeCase; home and work are only given for adults
+     */
+    public String encode(int index, int age, Location home, Location work, int pidx){
+        finish(pidx);
+        StringBuilder out = new StringBuilder();
+        out.append(index).append("%");
+        out.append(age).append("%");
+        out.append(Math.max(sickOn[pidx], 0)).append("%");
+        if(work != null){
+            out.append(shortCode(home.getName())).append("%");
+            out.append(work.getName()).append("%");
+        }
+        else{
+            out.append("N/A%N/A%");
+        }
+        out.append(visits[pidx]);
+        return out.toString();
+    }
+
+    /*
+     * Someone never seen infected is read over their whole history
+     */
+    private void finish(int pidx){
+        if(lunches[pidx] == null){
+            collect(pidx, history.getLastTime() + 1, history.getRunCount(pidx));
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * Reproducible synthetic cities of any size
+ * Locations are scattered around neighbourhood centres and go straight into
+ * the City and its LocationIndex as they are drawn, so no coordinate list is
+ * ever held in memory. Names follow files/coords.txt ("Restaurant 2 (R)").
+ */
+public class CityGenerator {
+
+    private long seed;
+    private int population;
+    private double span = 0.1;
+    private int neighbourhoods = 0;
+    private double spread = 0.15;
+    private double restaurantsPerThousand = 10.0;
+    private double groceriesPerThousand = 2.5;
+    private double companiesPerThousand = 12.5;
+    private double beachesPerThousand = 0.1;
+    private double[] householdWeights = {0.28, 0.35, 0.15, 0.13, 0.06, 0.03};
+    private int maxAdults = 2;
+
+    public CityGenerator(long seed, int population){
+        this.seed = seed;
+        this.population = population;
+    }
+
+    /*
+     * Side of the square map in degrees of lat/lng
+     */
+    public void setSpan(double span){
+        this.span = span;
+    }
+
+    /*
+     * Number of neighbourhood centres (zero for one per 5000 residents) and how
+     * far, as a fraction of span, locations scatter from them; zero spread
+     * places everything uniformly
+     */
+    public void setNeighbourhoods(int neighbourhoods, double spread){
+        this.neighbourhoods = neighbourhoods;
+        this.spread = spread;
+    }
+
+    public void setDensities(double restaurants, double groceries, double companies, double beaches){
+        this.restaurantsPerThousand = restaurants;
+        this.groceriesPerThousand = groceries;
+        this.companiesPerThousand = companies;
+        this.beachesPerThousand = beaches;
+    }
+
+    /*
+     * Relative weight of each household size, starting from one person
+     */
+    public void setHouseholdWeights(double[] weights, int maxAdults){
+        this.householdWeights = weights;
+        this.maxAdults = maxAdults;
+    }
+
+    public City generate(SimContext context, String name, boolean intervene, List<String> targetLocations){
+        City city = new City(name);
+        LocationIndex index = new LocationIndex();
+        int[][] households = place(context, city, index);
+        LakeTown.populateCity(context, city, index, intervene, targetLocations, households[0], households[1]);
+        return city;
+    }
+
+    /*
+     * Same city for PopulationEngine; no City or Person objects are made
+     */
+    public PopulationEngine generateEngine(SimContext context, String name, boolean intervene, List<String> targetLocations){
+        LocationIndex index = new LocationIndex();
+        int[][] households = place(context, null, index);
+        return PopulationEngine.populate(context, name, index, households[0], households[1], intervene, targetLocations);
+    }
+
+    /*
+     * Just the locations, built and set on the context, e.g. to restore a checkpoint
+     */
+    public LocationIndex generateIndex(SimContext context){
+        LocationIndex index = new LocationIndex();
+        place(context, null, index);
+        index.build();
+        context.setIndex(index);
+        return index;
+    }
+
+    /*
+     * Draw every location into the index (and the city, if given),
+     * returning family sizes and adult counts per home
+     */
+    private int[][] place(SimContext context, City city, LocationIndex index){
+        SplittableRandom rand = new SplittableRandom(seed);
+        int centres = (neighbourhoods > 0) ? neighbourhoods : Math.max(1, population / 5000);
+        double[] centreLat = new double[centres];
+        double[] centreLng = new double[centres];
+        for(int c = 0; c < centres; c++){
+            centreLat[c] = span * rand.nextDouble();
+            centreLng[c] = span * rand.nextDouble();
+        }
+        Placer placer = new Placer(rand, centreLat, centreLng);
+        int lidx = 0;
+        double thousands = population / 1000.0;
+        int restaurants = Math.max(3, (int)Math.round(restaurantsPerThousand * thousands));
+        int groceries = Math.max(1, (int)Math.round(groceriesPerThousand * thousands));
+        int companies = Math.max(1, (int)Math.round(companiesPerThousand * thousands));
+        int beaches = (int)Math.round(beachesPerThousand * thousands);
+        for(int r = 0; r < restaurants; r++){
+            placer.next();
+            add(city, index, new LakeTown.Restaurant(context, "" + lidx++, placer.lat, placer.lng, "Restaurant " + r + " (R)"), placer);
+        }
+        for(int g = 0; g < groceries; g++){
+            placer.next();
+            add(city, index, new LakeTown.Grocery("" + lidx++, placer.lat, placer.lng, "Grocery " + g + " (G)"), placer);
+        }
+        for(int c = 0; c < companies; c++){
+            placer.next();
+            add(city, index, new LakeTown.Company("" + lidx++, placer.lat, placer.lng, "Company " + c + " (C)"), placer);
+        }
+        for(int b = 0; b < beaches; b++){
+            placer.next();
+            add(city, index, new LakeTown.Beach("" + lidx++, placer.lat, placer.lng, "Beach " + b + " (B)"), placer);
+        }
+        double totalWeight = 0.0;
+        for(double w : householdWeights){
+            totalWeight += w;
+        }
+        int[] familySizes = new int[Math.max(16, population / 2)];
+        int[] adultCounts = new int[familySizes.length];
+        int homes = 0;
+        int residents = 0;
+        while(residents < population){
+            double pick = totalWeight * rand.nextDouble();
+            int size = householdWeights.length;
+            for(int k = 0; k < householdWeights.length; k++){
+                pick -= householdWeights[k];
+                if(pick < 0){
+                    size = k + 1;
+                    break;
+                }
+            }
+            size = Math.min(size, population - residents);
+            if(homes == familySizes.length){
+                familySizes = Arrays.copyOf(familySizes, homes * 2);
+                adultCounts = Arrays.copyOf(adultCounts, homes * 2);
+            }
+            familySizes[homes] = size;
+            adultCounts[homes] = Math.max(1, Math.min(maxAdults, size));
+            placer.next();
+            add(city, index, new LakeTown.Home("" + lidx++, placer.lat, placer.lng, "Home " + homes), placer);
+            homes++;
+            residents += size;
+        }
+        return new int[][]{familySizes, adultCounts};
+    }
+
+    private static void add(City city, LocationIndex index, Location loc, Placer placer){
+        if(city != null){
+            city.addLocation(loc);
+        }
+        index.add(loc, placer.lat, placer.lng);
+    }
+
+    /*
+     * Draws the next position around a random neighbourhood centre
+     */
+    private class Placer {
+        private SplittableRandom rand;
+        private double[] centreLat;
+        private double[] centreLng;
+        private double lat;
+        private double lng;
+        public Placer(SplittableRandom rand, double[] centreLat, double[] centreLng){
+            this.rand = rand;
+            this.centreLat = centreLat;
+            this.centreLng = centreLng;
+        }
+        /*
+         * One Box-Muller pair gives a 2D normal offset from the centre
+         */
+        public void next(){
+            if(spread <= 0.0){
+                lat = span * rand.nextDouble();
+                lng = span * rand.nextDouble();
+                return;
+            }
+            int c = rand.nextInt(centreLat.length);
+            double radius = spread * span * Math.sqrt(-2.0 * Math.log(1.0 - rand.nextDouble()));
+            double angle = 2.0 * Math.PI * rand.nextDouble();
+            lat = clamp(centreLat[c] + radius * Math.cos(angle));
+            lng = clamp(centreLng[c] + radius * Math.sin(angle));
+        }
+        private double clamp(double v){
+            return Math.max(0.0, Math.min(span, v));
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * Contact tracing index: which people have ever visited each watched location
+ * Updated once per turn as people move, so "has this person been to X"
+ * is a single bit lookup instead of a walk over their history.
+ */
+public class ContactIndex {
+
+    private LocationIndex index;
+    private List<Person> people;
+    private int[] watchSlot;
+    private BitSet[] visitors;
+    private int[] lastSeen;
+
+    public ContactIndex(LocationIndex index, List<Person> people, List<Location> watched){
+        this(index, people.size(), watched);
+        this.people = people;
+    }
+
+    /*
+     * Index with no Person list behind it, filled through visit()
+     */
+    public ContactIndex(LocationIndex index, int population, List<Location> watched){
+        this.index = index;
+        this.watchSlot = new int[index.size()];
+        Arrays.fill(watchSlot, -1);
+        this.visitors = new BitSet[watched.size()];
+        for(int w = 0; w < watched.size(); w++){
+            int lidx = (watched.get(w) == null) ? -1 : index.getOrdinal(watched.get(w));
+            if(lidx < 0){
+                throw new RuntimeException("Quarantine target " + watched.get(w) + " is not a location of this city");
+            }
+            watchSlot[lidx] = w;
+            visitors[w] = new BitSet(population);
+        }
+        this.lastSeen = new int[population];
+        Arrays.fill(lastSeen, -1);
+    }
+
+    /*
+     * Target locations by name; throws on a name the city does not have
+     */
+    public static List<Location> findTargets(LocationIndex index, List<String> targetNames){
+        List<Location> res = new ArrayList<Location>();
+        for(String targetName : targetNames){
+            Location site = Location.getLocationByName(index.getLocations(), targetName);
+            if(site == null){
+                throw new RuntimeException("No quarantine target named " + targetName);
+            }
+            res.add(site);
+        }
+        return res;
+    }
+
+    /*
+     * Note where everyone is now, touching only people who moved
+     */
+    public void record(){
+        for(int pidx = 0; pidx < lastSeen.length; pidx++){
+            record(pidx);
+        }
+    }
+
+    private void record(int pidx){
+        visit(pidx, index.getOrdinal(people.get(pidx).getLocation()));
+    }
+
+    /*
+     * A person is now at the location with the given ordinal
+     */
+    public void visit(int pidx, int lidx){
+        if(lidx == lastSeen[pidx]){
+            return;
+        }
+        lastSeen[pidx] = lidx;
+        if(lidx >= 0 && watchSlot[lidx] >= 0){
+            visitors[watchSlot[lidx]].set(pidx);
+        }
+    }
+
+    /*
+     * Catch up from a recorded history, e.g. after restoring a checkpoint
+     */
+    public void replay(HistoryStore history){
+        for(int pidx = 0; pidx < lastSeen.length; pidx++){
+            for(int run = 0; run < history.getRunCount(pidx); run++){
+                visit(pidx, history.getRunLocation(pidx, run));
+            }
+        }
+    }
+
+    public boolean isWatched(Location loc){
+        int lidx = index.getOrdinal(loc);
+        return lidx >= 0 && watchSlot[lidx] >= 0;
+    }
+
+    public boolean hasVisited(int pidx, Location loc){
+        int lidx = index.getOrdinal(loc);
+        if(lidx < 0 || watchSlot[lidx] < 0){
+            return false;
+        }
+        return visitors[watchSlot[lidx]].get(pidx);
+    }
+
+    public boolean hasVisited(int pidx, int lidx){
+        return lidx >= 0 && watchSlot[lidx] >= 0 && visitors[watchSlot[lidx]].get(pidx);
+    }
+
+    public int getVisitorCount(Location loc){
+        int lidx = index.getOrdinal(loc);
+        if(lidx < 0 || watchSlot[lidx] < 0){
+            return 0;
+        }
+        return visitors[watchSlot[lidx]].cardinality();
+    }
+
+}
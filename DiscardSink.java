@@ -0,0 +1,21 @@
+package fishsamples;
+import fish.*;
+
+/*
+ * Output for runs that only need their tallies, such as forks and checks
+ */
+public class DiscardSink implements OutputSink {
+
+    public void writeCity(City city){}
+
+    public void writeLocations(City city){}
+
+    public void writeSnapshot(int time, int[] counts, boolean[] contaminated){}
+
+    public void writeCase(String line){}
+
+    public void writeEncodedCase(String line){}
+
+    public void close(){}
+
+}
@@ -0,0 +1,211 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * Gate on PopulationEngine's reading of fish
+ * The engine re-implements what fish does inside Person and City: how an
+ * exposure infects, the hour a course starts, staying home sick, recovery,
+ * and the days on which a ControlMeasure applies. Before the engine takes an
+ * outbreak, each strain runs through both backends in lockstep on a town of
+ * one adult, one child and one restaurant, where lunch and every exposure
+ * are settled without a random draw: once with exposures certain to infect,
+ * once under quarantine with exposures that never do. The two must agree on
+ * everyone's state and location and on the quarantine tallies, hour by hour.
+ * Library exposures of fresh people must also infect at the strain's
+ * infectivity, as the engine's do. Any disagreement stops the run; strain
+ * sets that pass are remembered for the rest of the JVM.
+ *
+ * Helper's random stream is reseeded with the run's seed afterwards, so a run
+ * sees the same stream whether or not a check went first.
+ */
+public class EngineCheck {
+
+    public static int EXPOSURE_TRIALS = 4000;
+
+    private static final String SITE = "Restaurant 0 (R)";
+    private static Set<String> passed = new HashSet<String>();
+    private static boolean checking = false;
+
+    /*
+     * Check every strain of the outbreak under the current settings, unless
+     * already done; called again from the check's own engine, it returns
+     */
+    public static synchronized void require(Outbreak outbreak, long seed){
+        String key = keyOf(outbreak);
+        if(checking || passed.contains(key)){
+            return;
+        }
+        checking = true;
+        try{
+            for(Pathogen strain : outbreak.getStrains()){
+                String error = check(strain, seed);
+                if(error != null){
+                    throw new RuntimeException("The engine backend disagrees with the object backend on " + strain.getName() + ": " + error);
+                }
+            }
+            passed.add(key);
+        }
+        finally{
+            checking = false;
+            Helper.setSeed((int)seed);
+        }
+    }
+
+    /*
+     * First disagreement for one strain, or null
+     */
+    public static String check(Pathogen strain, long seed){
+        int course = ProgressionTable.get(strain, AgeGroup.ADULT).getLength();
+        String error = lockstep(new Fixed(strain, 1.0), seed, false, LakeTown.AdultRoutine.LUNCH_HOUR + course + 48);
+        if(error == null){
+            int windowEnd = LakeTown.INTERVENTION_DAY + LakeTown.QuarantineMeasure.WINDOW_DAYS;
+            error = lockstep(new Fixed(strain, 0.0), seed, true, 24 * (windowEnd + 2));
+        }
+        if(error == null){
+            error = checkExposures(strain);
+        }
+        return error;
+    }
+
+    /*
+     * Run the check town on both backends side by side
+     */
+    private static String lockstep(Pathogen pathogen, long seed, boolean intervene, int hours){
+        List<String> targets = new ArrayList<String>();
+        if(intervene){
+            targets.add(SITE);
+        }
+        SimContext objects = new SimContext(seed);
+        objects.setSink(new DiscardSink());
+        City city = new City("Check Town");
+        LocationIndex index = buildTown(objects, city);
+        LakeTown.populateCity(objects, city, index, intervene, targets, new int[]{2}, new int[]{1});
+        SimContext columns = new SimContext(seed);
+        columns.setSink(new DiscardSink());
+        columns.setIndex(index);
+        Outbreak plan = new Outbreak();
+        plan.addSource(LakeTown.AdultRoutine.LUNCH_HOUR, SITE, plan.addStrain(pathogen));
+        PopulationEngine engine = PopulationEngine.fromCity(columns, city, intervene, targets, plan);
+        engine.setQuiet(true);
+        Location site = index.getLocation(0);
+        List<Person> people = city.getPeople();
+        if(objects.getContacts() != null){
+            objects.getContacts().record();
+        }
+        for(int t = 0; t < hours; t++){
+            if(t == LakeTown.AdultRoutine.LUNCH_HOUR){
+                site.doInfect(pathogen);
+            }
+            if(intervene && t == LakeTown.INTERVENTION_TIME){
+                site.doDisinfect();
+            }
+            city.doTurn();
+            if(objects.getContacts() != null){
+                objects.getContacts().record();
+            }
+            engine.step();
+            for(int pidx = 0; pidx < people.size(); pidx++){
+                Person person = people.get(pidx);
+                if(person.getState() != engine.getState(pidx)){
+                    return "person " + pidx + " is " + person.getState() + " after hour " + t + ", but " + engine.getState(pidx) + " on the engine";
+                }
+                if(index.getOrdinal(person.getLocation()) != engine.getLocation(pidx)){
+                    return "person " + pidx + " is at " + person.getLocation() + " after hour " + t + ", but at " + index.getLocation(engine.getLocation(pidx)) + " on the engine";
+                }
+            }
+            if(objects.getQuarantinedHours() != columns.getQuarantinedHours() || objects.getTotalAffected() != columns.getTotalAffected()){
+                return "quarantine tallies differ after hour " + t;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The restaurant is everyone's only choice, so lunch needs no draw
+     */
+    private static LocationIndex buildTown(SimContext context, City city){
+        Location[] sites = {
+            new LakeTown.Restaurant(context, "0", 0.0, 0.0, SITE),
+            new LakeTown.Grocery("1", 0.0, 0.001, "Grocery 0 (G)"),
+            new LakeTown.Company("2", 0.0, 0.002, "Company 0 (C)"),
+            new LakeTown.Home("3", 0.0, 0.003, "House 0")
+        };
+        LocationIndex index = new LocationIndex();
+        for(int lidx = 0; lidx < sites.length; lidx++){
+            city.addLocation(sites[lidx]);
+            index.add(sites[lidx], 0.0, 0.001 * lidx);
+        }
+        return index;
+    }
+
+    /*
+     * Person.doExposure on fresh people against the engine's infectivity draw
+     */
+    private static String checkExposures(Pathogen strain){
+        for(AgeGroup ag : AgeGroup.values()){
+            double p = strain.getInfectivity(ag);
+            int infected = 0;
+            for(int k = 0; k < EXPOSURE_TRIALS; k++){
+                Person person = new Person("CHECK", ag);
+                person.doExposure(strain);
+                if(person.getPathogen() != null){
+                    infected++;
+                }
+            }
+            double rate = (double)infected / (double)EXPOSURE_TRIALS;
+            double slack = 5.0 * Math.sqrt(p * (1.0 - p) / (double)EXPOSURE_TRIALS) + 1.0 / (double)EXPOSURE_TRIALS;
+            if(Math.abs(rate - p) > slack){
+                return String.format(Locale.US, "%s exposures infect %.3f of the time, not %.3f", ag, rate, p);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Strains and the settings the lockstep depends on
+     */
+    private static String keyOf(Outbreak outbreak){
+        StringBuilder res = new StringBuilder();
+        for(Pathogen strain : outbreak.getStrains()){
+            res.append(ProgressionTable.keyOf(strain));
+            for(AgeGroup ag : AgeGroup.values()){
+                res.append("/").append(strain.getInfectivity(ag));
+            }
+            res.append(";");
+        }
+        res.append(LakeTown.AdultRoutine.WORK_START).append("/").append(LakeTown.AdultRoutine.LUNCH_HOUR).append("/").append(LakeTown.AdultRoutine.WORK_END);
+        res.append(";").append(LakeTown.INTERVENTION_DAY).append("/").append(LakeTown.QuarantineMeasure.WINDOW_DAYS).append("/").append(LakeTown.QuarantineMeasure.QUARANTINE_HOURS);
+        res.append(";").append(LakeTown.Restaurant.EAT_CONTAMINATED);
+        return res.toString();
+    }
+
+    /*
+     * A strain with its infectivity pinned, so exposures need no luck; it
+     * shares the strain's progression table
+     */
+    private static class Fixed extends Pathogen {
+        private Pathogen strain;
+        private double infectivity;
+        public Fixed(Pathogen strain, double infectivity){
+            this.strain = strain;
+            this.infectivity = infectivity;
+        }
+        public String getName(){
+            return ProgressionTable.keyOf(strain);
+        }
+        public double getInfectivity(AgeGroup ageGroup){
+            return infectivity;
+        }
+        public double getToxigenicity(AgeGroup ageGroup){
+            return strain.getToxigenicity(ageGroup);
+        }
+        public double getResistance(AgeGroup ageGroup){
+            return strain.getResistance(ageGroup);
+        }
+        public int expand(int bacteria){
+            return strain.expand(bacteria);
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+
+/*
+ * Run-length encoded person history
+ * Each person keeps parallel int arrays of (start hour, packed location and state),
+ * and a new run is only added when the location or state changes.
+ */
+public class HistoryStore {
+
+    private static final int STATE_BITS = 3;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+    private static final Person.State[] STATES = Person.State.values();
+
+    private LocationIndex index;
+    private List<Person> people;
+    private int[][] runTimes;
+    private int[][] runValues;
+    private int[] runCounts;
+    private int firstTime = -1;
+    private int lastTime = -1;
+    private CaseLog cases = null;
+
+    public HistoryStore(LocationIndex index, List<Person> people){
+        this(index, people.size());
+        this.people = people;
+    }
+
+    /*
+     * Store with no Person list behind it, filled through append()
+     */
+    public HistoryStore(LocationIndex index, int n){
+        this(index, n, 4);
+    }
+
+    private HistoryStore(LocationIndex index, int n, int capacity){
+        this.index = index;
+        this.runTimes = new int[n][];
+        this.runValues = new int[n][];
+        this.runCounts = new int[n];
+        for(int i = 0; capacity > 0 && i < n; i++){
+            runTimes[i] = new int[capacity];
+            runValues[i] = new int[capacity];
+        }
+    }
+
+    /*
+     * Snapshot every person's location and state for the given hour
+     */
+    public void record(int time){
+        stamp(time);
+        for(int i = 0; i < runCounts.length; i++){
+            record(i, time);
+        }
+    }
+
+    /*
+     * Mark the given hour as recorded; anyone not appended carries forward
+     */
+    public void stamp(int time){
+        if(firstTime < 0){
+            firstTime = time;
+        }
+        lastTime = time;
+    }
+
+    private void record(int i, int time){
+        Person p = people.get(i);
+        append(i, time, index.getOrdinal(p.getLocation()), p.getState().ordinal());
+    }
+
+    /*
+     * Note one person's location and state ordinal from the given hour on
+     */
+    public void append(int i, int time, int lidx, int state){
+        int packed = (lidx << STATE_BITS) | state;
+        int count = runCounts[i];
+        if(count > 0 && runValues[i][count - 1] == packed){
+            return;
+        }
+        if(cases != null && count > 0 && (runValues[i][count - 1] & STATE_MASK) != state){
+            cases.onTransition(i, time, state);
+        }
+        if(count == runTimes[i].length){
+            runTimes[i] = Arrays.copyOf(runTimes[i], count * 2);
+            runValues[i] = Arrays.copyOf(runValues[i], count * 2);
+        }
+        runTimes[i][count] = time;
+        runValues[i][count] = packed;
+        runCounts[i] = count + 1;
+    }
+
+    public int getFirstTime(){
+        return firstTime;
+    }
+
+    public int getLastTime(){
+        return lastTime;
+    }
+
+    /*
+     * Number of runs held across all people, i.e. the memory in use
+     */
+    public long getTotalRuns(){
+        long res = 0;
+        for(int count : runCounts){
+            res += count;
+        }
+        return res;
+    }
+
+    public int getRunCount(int pidx){
+        return runCounts[pidx];
+    }
+
+    /*
+     * Told about every state change as it is appended
+     */
+    public void setCases(CaseLog cases){
+        this.cases = cases;
+    }
+
+    public int getRunTime(int pidx, int run){
+        return runTimes[pidx][run];
+    }
+
+    public int getRunState(int pidx, int run){
+        return runValues[pidx][run] & STATE_MASK;
+    }
+
+    /*
+     * Location ordinal of a person's given run, in time order
+     */
+    public int getRunLocation(int pidx, int run){
+        return runValues[pidx][run] >>> STATE_BITS;
+    }
+
+    /*
+     * Save every run for a checkpoint, as two flat blocks in person order
+     */
+    public void write(SnapshotFile out) throws IOException {
+        out.writeInt(runCounts.length);
+        out.writeInt(firstTime);
+        out.writeInt(lastTime);
+        out.writeInts(runCounts, runCounts.length);
+        for(int pidx = 0; pidx < runCounts.length; pidx++){
+            out.writeInts(runTimes[pidx], runCounts[pidx]);
+        }
+        for(int pidx = 0; pidx < runCounts.length; pidx++){
+            out.writeInts(runValues[pidx], runCounts[pidx]);
+        }
+    }
+
+    public static HistoryStore read(SnapshotFile in, LocationIndex index) throws IOException {
+        HistoryStore res = new HistoryStore(index, in.readInt(), 0);
+        res.firstTime = in.readInt();
+        res.lastTime = in.readInt();
+        in.readInts(res.runCounts, res.runCounts.length);
+        long total = res.getTotalRuns();
+        res.runTimes = split(in, res.runCounts, total);
+        res.runValues = split(in, res.runCounts, total);
+        return res;
+    }
+
+    /*
+     * Read one flat block and cut it into per-person arrays with some room to grow
+     */
+    private static int[][] split(SnapshotFile in, int[] counts, long total) throws IOException {
+        int[][] res = new int[counts.length][];
+        int[] block = new int[(int)Math.min(total, 1 << 24)];
+        int have = 0;
+        int pos = 0;
+        for(int pidx = 0; pidx < counts.length; pidx++){
+            int count = counts[pidx];
+            res[pidx] = new int[Math.max(4, count + count / 2)];
+            for(int done = 0; done < count; ){
+                if(pos == have){
+                    have = (int)Math.min(block.length, total);
+                    in.readInts(block, have);
+                    total -= have;
+                    pos = 0;
+                }
+                int len = Math.min(count - done, have - pos);
+                System.arraycopy(block, pos, res[pidx], done, len);
+                pos += len;
+                done += len;
+            }
+        }
+        return res;
+    }
+
+    private int valueAt(int pidx, int time){
+        int lo = 0;
+        int hi = runCounts[pidx] - 1;
+        while(lo < hi){
+            int mid = (lo + hi + 1) >>> 1;
+            if(runTimes[pidx][mid] <= time){
+                lo = mid;
+            }
+            else{
+                hi = mid - 1;
+            }
+        }
+        return runValues[pidx][lo];
+    }
+
+    public Location getLocation(int pidx, int time){
+        return index.getLocation(valueAt(pidx, time) >>> STATE_BITS);
+    }
+
+    public Person.State getState(int pidx, int time){
+        return STATES[valueAt(pidx, time) & STATE_MASK];
+    }
+
+    public Cursor cursor(int pidx){
+        return new StoreCursor(pidx);
+    }
+
+    /*
+     * Hour-by-hour walk over one person's history
+     * Call next() before reading the first hour.
+     */
+    public static abstract class Cursor {
+        public abstract boolean next();
+        public abstract int getTime();
+        public abstract Location getLocation();
+        public abstract Person.State getState();
+    }
+
+    private class StoreCursor extends Cursor {
+        private int pidx;
+        private int run = -1;
+        private int time;
+        public StoreCursor(int pidx){
+            this.pidx = pidx;
+            this.time = firstTime - 1;
+        }
+        public boolean next(){
+            if(time >= lastTime || runCounts[pidx] == 0){
+                return false;
+            }
+            time++;
+            while(run + 1 < runCounts[pidx] && runTimes[pidx][run + 1] <= time){
+                run++;
+            }
+            return true;
+        }
+        public int getTime(){
+            return time;
+        }
+        public Location getLocation(){
+            return index.getLocation(runValues[pidx][run] >>> STATE_BITS);
+        }
+        public Person.State getState(){
+            return STATES[runValues[pidx][run] & STATE_MASK];
+        }
+    }
+
+    /*
+     * Same walk over the Person.Record list kept by the person
+     */
+    public static class RecordCursor extends Cursor {
+        private List<Person.Record> history;
+        private int pos = -1;
+        public RecordCursor(List<Person.Record> history){
+            this.history = history;
+        }
+        public boolean next(){
+            if(pos + 1 >= history.size()){
+                return false;
+            }
+            pos++;
+            return true;
+        }
+        public int getTime(){
+            return history.get(pos).getTime();
+        }
+        public Location getLocation(){
+            return history.get(pos).getLocation();
+        }
+        public Person.State getState(){
+            return history.get(pos).getState();
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Deferred location interactions for one turn
+ * While the city runs its turn, restaurants hand their crowds to this phase
+ * instead of exposing people directly. flush() works out every crowd's
+ * exposures on the pool, each crowd drawing from its own stream seeded by
+ * (run seed, hour, location). Applying them cannot be spread the same way:
+ * Person.doExposure draws from Helper's one global stream, so exposures are
+ * applied on the calling thread in location order, or results would depend on
+ * thread timing. Only the picks are spread over threads, and the serial apply
+ * caps how far the phase scales.
+ */
+public class InteractionPhase {
+
+    private SimContext context;
+    private ExecutorService pool;
+    private int threads;
+    private Crowd[] crowds;
+    private List<Crowd> pending = new ArrayList<Crowd>();
+
+    public InteractionPhase(SimContext context, int threads){
+        this.context = context;
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+        this.crowds = new Crowd[context.getIndex().size()];
+    }
+
+    /*
+     * Queue a location's crowd for this turn; the list is copied
+     */
+    public void defer(LakeTown.Restaurant site, List<Person> people){
+        int lidx = context.getIndex().getOrdinal(site);
+        if(crowds[lidx] == null){
+            crowds[lidx] = new Crowd(site, lidx);
+        }
+        Crowd crowd = crowds[lidx];
+        crowd.people.clear();
+        crowd.people.addAll(people);
+        crowd.exposures.clear();
+        pending.add(crowd);
+    }
+
+    /*
+     * Resolve all crowds queued during the given hour
+     */
+    public void flush(int hour){
+        if(pending.isEmpty()){
+            return;
+        }
+        Collections.sort(pending);
+        final long seed = context.getSeed();
+        final int time = hour;
+        if(threads <= 1 || pending.size() == 1){
+            for(Crowd crowd : pending){
+                crowd.collect(seed, time);
+            }
+        }
+        else{
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(pending.size());
+            for(final Crowd crowd : pending){
+                tasks.add(new Callable<Void>(){
+                    public Void call(){
+                        crowd.collect(seed, time);
+                        return null;
+                    }
+                });
+            }
+            try{
+                for(Future<Void> done : pool.invokeAll(tasks)){
+                    done.get();
+                }
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            catch(ExecutionException e){
+                throw new RuntimeException("Interaction phase failed: " + e.getCause(), e.getCause());
+            }
+        }
+        TickMetrics tick = context.getTickMetrics();
+        for(Crowd crowd : pending){
+            int attempted = crowd.exposures.size();
+            int infected = crowd.exposures.apply();
+            if(tick != null){
+                tick.addExposures(attempted, infected);
+            }
+        }
+        pending.clear();
+    }
+
+    public void close(){
+        pool.shutdown();
+    }
+
+    /*
+     * SplitMix64 finaliser, used to derive independent stream seeds
+     */
+    public static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /*
+     * The draws of a new SplittableRandom(seed), but reseeded in place so
+     * per-site streams cost no allocation
+     */
+    public static class SplitMix {
+        private static final long GAMMA = 0x9e3779b97f4a7c15L;
+        private long seed;
+        public SplitMix reset(long seed){
+            this.seed = seed;
+            return this;
+        }
+        public int nextInt(int bound){
+            int r = nextInt();
+            int m = bound - 1;
+            if((bound & m) == 0){
+                return r & m;
+            }
+            for(int u = r >>> 1; u + m - (r = u % bound) < 0; u = nextInt() >>> 1){
+            }
+            return r;
+        }
+        public double nextDouble(){
+            return (mix(seed += GAMMA) >>> 11) * 0x1.0p-53;
+        }
+        private int nextInt(){
+            long z = seed += GAMMA;
+            z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+            return (int)(((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+        }
+    }
+
+    private static class Crowd implements Comparable<Crowd> {
+        private LakeTown.Restaurant site;
+        private int lidx;
+        private List<Person> people = new ArrayList<Person>();
+        private Exposures exposures = new Exposures();
+        public Crowd(LakeTown.Restaurant site, int lidx){
+            this.site = site;
+            this.lidx = lidx;
+        }
+        public void collect(long seed, int time){
+            SplittableRandom rand = new SplittableRandom(mix(mix(seed + time) + lidx));
+            site.collectExposures(people, rand, exposures);
+        }
+        public int compareTo(Crowd other){
+            return Integer.compare(lidx, other.lidx);
+        }
+    }
+
+    /*
+     * Buffered (person, pathogen) exposures, reused from turn to turn
+     */
+    public static class Exposures {
+        private Person[] people = new Person[16];
+        private Pathogen[] pathogens = new Pathogen[16];
+        private int size = 0;
+        public void add(Person person, Pathogen pathogen){
+            if(size == people.length){
+                people = Arrays.copyOf(people, size * 2);
+                pathogens = Arrays.copyOf(pathogens, size * 2);
+            }
+            people[size] = person;
+            pathogens[size] = pathogen;
+            size++;
+        }
+        public int size(){
+            return size;
+        }
+        /*
+         * Expose everyone in order; returns how many exposures turned into
+         * infections
+         */
+        public int apply(){
+            int infected = 0;
+            for(int e = 0; e < size; e++){
+                boolean wasClear = people[e].getPathogen() == null;
+                people[e].doExposure(pathogens[e]);
+                if(wasClear && people[e].getPathogen() != null){
+                    infected++;
+                }
+            }
+            clear();
+            return infected;
+        }
+        public void clear(){
+            Arrays.fill(people, 0, size, null);
+            Arrays.fill(pathogens, 0, size, null);
+            size = 0;
+        }
+    }
+
+}
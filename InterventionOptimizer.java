@@ -0,0 +1,320 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/*
+ * Beam search over quarantine target sets
+ * Every policy shares the outbreak up to INTERVENTION_TIME, so candidates are
+ * forked from LakeFork's checkpoint and run in parallel on the engine. Each
+ * level adds one restaurant to the best sets of the level before. A policy is
+ * scored on quarantined person-days, people infected and outbreak length, all
+ * to be kept low, and only ever grow while it runs: after every STAGE_HOURS
+ * the figures so far are a lower bound, and once a finished policy beats that
+ * bound outright the run is dropped. The policies nobody beats are the Pareto
+ * frontier, printed and written to FILE_PARETO; only sets on it are extended.
+ *
+ * Usage: InterventionOptimizer <seed> <population> [beam] [maxTargets] [candidates] [threads]
+ * Population 0 loads FILE_COORDS. Candidates are restaurant numbers, e.g.
+ * "2,5,7" from SourceInference; by default every restaurant is tried.
+ */
+public class InterventionOptimizer {
+
+    public static String FILE_PARETO = "files/pareto.txt";
+    public static int STAGE_HOURS = 24 * 7;
+
+    private int seed;
+    private String checkpoint;
+    private LocationIndex index;
+    private ExecutorService pool;
+    private List<Policy> frontier = new ArrayList<Policy>();
+    private int evaluated = 0;
+    private int stopped = 0;
+
+    public InterventionOptimizer(int seed, String checkpoint, LocationIndex index, ExecutorService pool){
+        this.seed = seed;
+        this.checkpoint = checkpoint;
+        this.index = index;
+        this.pool = pool;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int seed = 12;
+        int population = 0;
+        int beam = 3;
+        int maxTargets = 3;
+        String candidates = "";
+        int threads = Runtime.getRuntime().availableProcessors();
+        if(args.length >= 1){
+            seed = Integer.parseInt(args[0]);
+        }
+        if(args.length >= 2){
+            population = Integer.parseInt(args[1]);
+        }
+        if(args.length >= 3){
+            beam = Integer.parseInt(args[2]);
+        }
+        if(args.length >= 4){
+            maxTargets = Integer.parseInt(args[3]);
+        }
+        if(args.length >= 5){
+            candidates = args[4];
+        }
+        if(args.length >= 6){
+            threads = Integer.parseInt(args[5]);
+        }
+        Helper.setSeed(seed);
+        LakeTown.GENERATED_POPULATION = population;
+
+        SimContext base = new SimContext(seed);
+        base.setOutputTag("base");
+        String file = LakeFork.prepare(base, population);
+        System.out.println("Forking every policy from " + file + " at hour " + LakeTown.INTERVENTION_TIME + ".");
+        List<Integer> sites = new ArrayList<Integer>();
+        for(String site : candidates.split(Pattern.quote(","))){
+            if(site.length() > 0){
+                sites.add(Integer.parseInt(site));
+            }
+        }
+        if(sites.isEmpty()){
+            sites = restaurantNumbers(base.getIndex());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        InterventionOptimizer optimizer = new InterventionOptimizer(seed, file, base.getIndex(), pool);
+        long start = System.nanoTime();
+        List<Policy> pareto = optimizer.search(sites, beam, maxTargets);
+        pool.shutdown();
+
+        System.out.println("Evaluated " + optimizer.evaluated + " policies, " + optimizer.stopped + " stopped early, in " + ((System.nanoTime() - start) / 1000000) + " ms.");
+        System.out.println("Policy,QuarantineDays,Infected,OutbreakDays");
+        for(Policy policy : pareto){
+            System.out.println(policy.describe());
+            Helper.writeFileLine(FILE_PARETO, policy.describe());
+        }
+        Helper.closeAllFiles();
+
+    }
+
+    /*
+     * Numbers of every restaurant in the town, e.g. 2 for "Restaurant 2 (R)"
+     */
+    private static List<Integer> restaurantNumbers(LocationIndex index){
+        List<Integer> res = new ArrayList<Integer>();
+        for(Location loc : index.getLocations()){
+            if(loc instanceof LakeTown.Restaurant){
+                res.add(Integer.parseInt(loc.getName().split(Pattern.quote(" "))[1]));
+            }
+        }
+        return res;
+    }
+
+    /*
+     * Beam search from no targets up to maxTargets; returns the Pareto frontier
+     */
+    public List<Policy> search(List<Integer> sites, int beam, int maxTargets) throws Exception {
+        List<Policy> level = new ArrayList<Policy>();
+        level.add(new Policy(false, new int[0]));
+        level.add(new Policy(true, new int[0]));
+        evaluate(level.subList(0, 1));
+        evaluate(level.subList(1, 2));
+        Set<String> seen = new HashSet<String>();
+        List<Policy> parents = level;
+        for(int size = 1; size <= maxTargets; size++){
+            List<Policy> children = new ArrayList<Policy>();
+            for(Policy parent : parents){
+                if(!parent.intervene){
+                    continue;
+                }
+                for(int site : sites){
+                    Policy child = parent.with(site);
+                    if(child != null && seen.add(child.toString())){
+                        children.add(child);
+                    }
+                }
+            }
+            if(children.isEmpty()){
+                break;
+            }
+            evaluate(children);
+            parents = selectBeam(children, beam);
+            System.out.println("Level " + size + ": " + children.size() + " sets, kept " + parents);
+        }
+        synchronized(frontier){
+            List<Policy> res = new ArrayList<Policy>(frontier);
+            Collections.sort(res, new Comparator<Policy>(){
+                public int compare(Policy a, Policy b){
+                    int c = Double.compare(a.quarantineDays, b.quarantineDays);
+                    return (c != 0) ? c : a.toString().compareTo(b.toString());
+                }
+            });
+            return res;
+        }
+    }
+
+    /*
+     * Sets of a level that made the frontier, fewest infected first; pruning
+     * only ever drops dominated sets, so the beam does not depend on timing
+     */
+    private List<Policy> selectBeam(List<Policy> candidates, int beam){
+        List<Policy> res = new ArrayList<Policy>();
+        synchronized(frontier){
+            for(Policy policy : candidates){
+                if(frontier.contains(policy)){
+                    res.add(policy);
+                }
+            }
+        }
+        Collections.sort(res, new Comparator<Policy>(){
+            public int compare(Policy a, Policy b){
+                int c = Double.compare(a.infected, b.infected);
+                return (c != 0) ? c : Double.compare(a.quarantineDays, b.quarantineDays);
+            }
+        });
+        return new ArrayList<Policy>(res.subList(0, Math.min(beam, res.size())));
+    }
+
+    private void evaluate(List<Policy> policies) throws Exception {
+        List<Future<Policy>> futures = new ArrayList<Future<Policy>>();
+        for(final Policy policy : policies){
+            futures.add(pool.submit(new Callable<Policy>(){
+                public Policy call() throws IOException {
+                    return run(policy);
+                }
+            }));
+        }
+        for(Future<Policy> future : futures){
+            future.get();
+        }
+    }
+
+    /*
+     * Fork the checkpoint and run the policy stage by stage, giving up as soon
+     * as a finished policy is better on every count than this one can end up
+     */
+    private Policy run(Policy policy) throws IOException {
+        SimContext fork = new SimContext(seed);
+        fork.setIndex(index);
+        fork.setSink(new DiscardSink());
+        PopulationEngine engine = PopulationEngine.restore(fork, checkpoint, policy.intervene, policy.targetNames());
+        if(engine.getTime() != LakeTown.INTERVENTION_TIME){
+            throw new RuntimeException(checkpoint + " resumes at hour " + engine.getTime() + ", not at the intervention at " + LakeTown.INTERVENTION_TIME);
+        }
+        engine.setQuiet(true);
+        boolean outbreak = true;
+        while(outbreak){
+            outbreak = engine.runUntil(engine.getTime() + STAGE_HOURS);
+            policy.quarantineDays = (double)fork.getQuarantinedHours() / 24.0;
+            policy.infected = engine.size() - engine.getStateCounts()[Person.State.SUSCEPTIBLE.ordinal()];
+            policy.outbreakDays = (double)engine.getTime() / 24.0;
+            if(outbreak && isBeaten(policy)){
+                policy.pruned = true;
+                break;
+            }
+        }
+        synchronized(frontier){
+            evaluated++;
+            if(policy.pruned){
+                stopped++;
+            }
+            else{
+                addToFrontier(policy);
+            }
+        }
+        return policy;
+    }
+
+    private boolean isBeaten(Policy bound){
+        synchronized(frontier){
+            for(Policy policy : frontier){
+                if(policy.dominates(bound)){
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void addToFrontier(Policy policy){
+        for(Policy other : frontier){
+            if(other.dominates(policy)){
+                return;
+            }
+        }
+        Iterator<Policy> it = frontier.iterator();
+        while(it.hasNext()){
+            if(policy.dominates(it.next())){
+                it.remove();
+            }
+        }
+        frontier.add(policy);
+    }
+
+    /*
+     * A set of target restaurants, in LakeSweep's plan format, and how it did
+     */
+    public static class Policy {
+        private boolean intervene;
+        private int[] targets;
+        private double quarantineDays = 0.0;
+        private double infected = 0.0;
+        private double outbreakDays = 0.0;
+        private boolean pruned = false;
+        public Policy(boolean intervene, int[] targets){
+            this.intervene = intervene;
+            this.targets = targets;
+        }
+        /*
+         * Same targets plus one more, kept sorted; null if already targeted
+         */
+        public Policy with(int site){
+            for(int target : targets){
+                if(target == site){
+                    return null;
+                }
+            }
+            int[] next = Arrays.copyOf(targets, targets.length + 1);
+            next[targets.length] = site;
+            Arrays.sort(next);
+            return new Policy(true, next);
+        }
+        public List<String> targetNames(){
+            List<String> res = new ArrayList<String>();
+            for(int target : targets){
+                res.add("Restaurant " + target + " (R)");
+            }
+            return res;
+        }
+        /*
+         * No worse on every count and better on at least one
+         */
+        public boolean dominates(Policy other){
+            boolean noWorse = quarantineDays <= other.quarantineDays && infected <= other.infected && outbreakDays <= other.outbreakDays;
+            boolean better = quarantineDays < other.quarantineDays || infected < other.infected || outbreakDays < other.outbreakDays;
+            return noWorse && better;
+        }
+        public String describe(){
+            return String.format(Locale.US, "%s,%.3f,%.0f,%.3f", toString(), quarantineDays, infected, outbreakDays);
+        }
+        public String toString(){
+            if(!intervene){
+                return "-";
+            }
+            if(targets.length == 0){
+                return "q";
+            }
+            StringBuilder res = new StringBuilder("q:");
+            for(int t = 0; t < targets.length; t++){
+                if(t > 0){
+                    res.append(",");
+                }
+                res.append(targets[t]);
+            }
+            return res.toString();
+        }
+    }
+
+}
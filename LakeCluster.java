@@ -0,0 +1,492 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * Scenario queue spread over worker processes on several machines
+ * The coordinator loads and checks every scenario as LakeQueue does, then
+ * hands out (scenario, seed) units over sockets. Each worker is one JVM that
+ * runs one unit at a time through LakeTown.run and answers with the summary
+ * and, if COLLECT_SERIES, the SIR series in BinarySink's layout, written to
+ * DIR_CLUSTER for BinaryExport. Idle workers pull the next unit, so fast and
+ * slow machines stay busy and the coordinator does nothing but bookkeeping;
+ * run one worker per core. A unit whose worker fails, drops or goes quiet for
+ * UNIT_TIMEOUT_MILLIS goes back on the queue, up to MAX_ATTEMPTS times.
+ * Summary lines are written to FILE_CLUSTER in scenario and seed order.
+ *
+ * Usage: LakeCluster coordinator <port> <scenario.properties or directory>...
+ *        LakeCluster worker <host> <port>
+ *        LakeCluster local <workers> <scenario.properties or directory>...
+ * Scenario files are sent to the workers, but anything they point at, like
+ * city.coords, is read on the worker, so every machine needs the same tree.
+ * Local mode starts the coordinator on the loopback interface and the given
+ * number of workers as child processes, logging to DIR_CLUSTER.
+ */
+public class LakeCluster {
+
+    public static String FILE_CLUSTER = "files/cluster.txt";
+    public static String DIR_CLUSTER = "files/cluster";
+    public static boolean COLLECT_SERIES = true;
+    public static int MAX_ATTEMPTS = 3;
+    public static int UNIT_TIMEOUT_MILLIS = 60 * 60 * 1000;
+    public static int CONNECT_ATTEMPTS = 30;
+
+    private static final byte HELLO = 1;
+    private static final byte UNIT = 2;
+    private static final byte RESULT = 3;
+    private static final byte FAILED = 4;
+    private static final byte DONE = 5;
+
+    private List<Unit> units = new ArrayList<Unit>();
+    private LinkedList<Unit> pending = new LinkedList<Unit>();
+    private int remaining;
+    private int retried = 0;
+    private boolean abandoned = false;
+
+    public LakeCluster(List<Scenario> scenarios) throws IOException {
+        for(int s = 0; s < scenarios.size(); s++){
+            Scenario scenario = scenarios.get(s);
+            byte[] text = Files.readAllBytes(Paths.get(scenario.getFile()));
+            String fileName = new File(scenario.getFile()).getName();
+            for(int seed = scenario.getFirstSeed(); seed <= scenario.getLastSeed(); seed++){
+                units.add(new Unit(units.size(), s, scenario, fileName, text, seed));
+            }
+        }
+        pending.addAll(units);
+        remaining = units.size();
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        String mode = (args.length >= 1) ? args[0] : "";
+        if(mode.equals("worker") && args.length >= 3){
+            work(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        if((!mode.equals("coordinator") && !mode.equals("local")) || args.length < 3){
+            System.out.println("Usage: LakeCluster coordinator <port> <scenarios>... | worker <host> <port> | local <workers> <scenarios>...");
+            System.exit(1);
+        }
+        List<Scenario> scenarios = LakeQueue.loadAll(LakeQueue.scenarioFiles(args, 2));
+        if(scenarios == null){
+            System.exit(1);
+        }
+        LakeCluster cluster = new LakeCluster(scenarios);
+        System.out.println("Cluster: " + scenarios.size() + " scenario(s), " + cluster.units.size() + " unit(s).");
+
+        List<Process> workers = new ArrayList<Process>();
+        ServerSocket server = null;
+        if(mode.equals("local")){
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            int count = Integer.parseInt(args[1]);
+            for(int w = 0; w < count; w++){
+                workers.add(startWorker(w, server.getLocalPort()));
+            }
+            System.out.println("Started " + count + " local worker(s) on port " + server.getLocalPort() + ".");
+            cluster.watch(workers);
+        }
+        else{
+            server = new ServerSocket(Integer.parseInt(args[1]));
+            System.out.println("Waiting for workers on port " + server.getLocalPort() + ".");
+        }
+        long start = System.nanoTime();
+        cluster.serve(server);
+        for(Process worker : workers){
+            worker.waitFor();
+        }
+
+        System.out.println("Finished in " + ((System.nanoTime() - start) / 1000000) + " ms, " + cluster.retried + " retries.");
+        System.out.println("Scenario,Seed,Infected,QuarantineDays,OutbreakDays,Millis,Worker");
+        for(Unit unit : cluster.units){
+            System.out.println(unit.describe());
+            Helper.writeFileLine(FILE_CLUSTER, unit.describe());
+        }
+        Helper.closeAllFiles();
+
+    }
+
+    /*
+     * Worker JVM on this machine, same classpath, output to its own log
+     */
+    private static Process startWorker(int w, int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(java);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("fishsamples.LakeCluster");
+        cmd.add("worker");
+        cmd.add(InetAddress.getLoopbackAddress().getHostAddress());
+        cmd.add("" + port);
+        new File(DIR_CLUSTER).mkdirs();
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(new File(DIR_CLUSTER, "worker_" + w + ".log"));
+        return pb.start();
+    }
+
+    /*
+     * Accept workers until every unit has finished or run out of attempts
+     */
+    public void serve(final ServerSocket server) throws InterruptedException, IOException {
+        Thread acceptor = new Thread(new Runnable(){
+            public void run(){
+                while(!server.isClosed()){
+                    try{
+                        final Socket socket = server.accept();
+                        Thread handler = new Thread(new Runnable(){
+                            public void run(){
+                                handle(socket);
+                            }
+                        }, "LakeCluster-" + socket.getRemoteSocketAddress());
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                    catch(IOException e){
+                        // closed once the work is done
+                    }
+                }
+            }
+        }, "LakeCluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        synchronized(this){
+            while(remaining > 0){
+                wait();
+            }
+        }
+        server.close();
+    }
+
+    /*
+     * One worker connection: hand out units until there are none left
+     */
+    private void handle(Socket socket){
+        String worker = "" + socket.getRemoteSocketAddress();
+        Unit unit = null;
+        try{
+            socket.setSoTimeout(UNIT_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if(in.readByte() != HELLO){
+                throw new IOException("expected a worker greeting");
+            }
+            worker = in.readUTF();
+            System.out.println("Worker " + worker + " joined.");
+            while((unit = next()) != null){
+                out.writeByte(UNIT);
+                out.writeInt(unit.id);
+                out.writeInt(unit.scenarioIndex);
+                out.writeUTF(unit.fileName);
+                writeBytes(out, unit.text);
+                out.writeInt(unit.seed);
+                out.writeBoolean(COLLECT_SERIES);
+                out.flush();
+                byte type = in.readByte();
+                if(in.readInt() != unit.id){
+                    throw new IOException("reply for the wrong unit");
+                }
+                if(type == RESULT){
+                    LakeSweep.Result res = new LakeSweep.Result();
+                    res.infected = in.readDouble();
+                    res.quarantineDays = in.readDouble();
+                    res.outbreakDays = in.readDouble();
+                    long millis = in.readLong();
+                    byte[] series = readBytes(in);
+                    if(series.length > 0){
+                        saveSeries(unit, series);
+                    }
+                    finish(unit, worker, res, millis);
+                }
+                else{
+                    retry(unit, worker, in.readUTF());
+                }
+                unit = null;
+            }
+            out.writeByte(DONE);
+            out.flush();
+        }
+        catch(IOException e){
+            if(unit != null){
+                retry(unit, worker, "connection lost: " + e);
+            }
+        }
+        finally{
+            try{
+                socket.close();
+            }
+            catch(IOException e){
+                // nothing left to say to this worker
+            }
+        }
+    }
+
+    /*
+     * Give up on what is left if every local worker has exited, since no
+     * other worker can join a loopback coordinator from outside
+     */
+    private void watch(final List<Process> workers){
+        Thread watcher = new Thread(new Runnable(){
+            public void run(){
+                try{
+                    for(Process worker : workers){
+                        worker.waitFor();
+                    }
+                }
+                catch(InterruptedException e){
+                    return;
+                }
+                abandon("no workers left");
+            }
+        }, "LakeCluster-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /*
+     * Settle every unfinished unit as failed; replies still in flight are
+     * dropped, since the report may already be on its way out
+     */
+    private synchronized void abandon(String error){
+        abandoned = true;
+        for(Unit unit : units){
+            if(unit.result == null){
+                unit.error = error;
+            }
+        }
+        pending.clear();
+        remaining = 0;
+        notifyAll();
+    }
+
+    /*
+     * Next unit to run, waiting while others may still come back for a retry;
+     * null once everything is settled
+     */
+    private synchronized Unit next() throws IOException {
+        while(pending.isEmpty() && remaining > 0){
+            try{
+                wait();
+            }
+            catch(InterruptedException e){
+                throw new IOException("interrupted");
+            }
+        }
+        if(abandoned || pending.isEmpty()){
+            return null;
+        }
+        Unit unit = pending.removeFirst();
+        unit.attempts++;
+        return unit;
+    }
+
+    private synchronized void finish(Unit unit, String worker, LakeSweep.Result res, long millis){
+        if(abandoned){
+            return;
+        }
+        unit.result = res;
+        unit.millis = millis;
+        unit.worker = worker;
+        remaining--;
+        System.out.println("Unit " + (units.size() - remaining) + "/" + units.size() + ": " + unit.scenario.getName() + " seed " + unit.seed + " on " + worker);
+        notifyAll();
+    }
+
+    private synchronized void retry(Unit unit, String worker, String error){
+        if(abandoned){
+            return;
+        }
+        unit.error = error;
+        unit.worker = worker;
+        System.out.println("Unit " + unit.scenario.getName() + " seed " + unit.seed + " failed on " + worker + ": " + error);
+        if(unit.attempts < MAX_ATTEMPTS){
+            retried++;
+            pending.addLast(unit);
+        }
+        else{
+            remaining--;
+        }
+        notifyAll();
+    }
+
+    private static void saveSeries(Unit unit, byte[] series) throws IOException {
+        File f = new File(DIR_CLUSTER, "sir_" + unit.scenario.getOutputTag(unit.seed) + ".bin");
+        f.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(f);
+        try{
+            out.write(series);
+        }
+        finally{
+            out.close();
+        }
+    }
+
+    /*
+     * Run units for the coordinator at host:port until it says it is done
+     */
+    public static void work(String host, int port) throws IOException {
+        Socket socket = connect(host, port);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        String name = InetAddress.getLocalHost().getHostName() + "/" + java.lang.management.ManagementFactory.getRuntimeMXBean().getName();
+        out.writeByte(HELLO);
+        out.writeUTF(name);
+        out.flush();
+        while(in.readByte() == UNIT){
+            int id = in.readInt();
+            int scenarioIndex = in.readInt();
+            String fileName = in.readUTF();
+            byte[] text = readBytes(in);
+            int seed = in.readInt();
+            boolean series = in.readBoolean();
+            try{
+                Scenario scenario = Scenario.load(stage(scenarioIndex, fileName, text));
+                scenario.apply();
+                System.out.println("Scenario " + scenario.getName() + ", seed " + seed);
+                long start = System.nanoTime();
+                Helper.setSeed(seed);
+                SimContext context = new SimContext(seed);
+                context.setOutputTag(scenario.getOutputTag(seed));
+                LakeSweep.Result res = LakeTown.run(context, scenario.isQuarantine(), scenario.getTargets());
+                long millis = (System.nanoTime() - start) / 1000000;
+                byte[] sir = series ? readSeries(context) : new byte[0];
+                out.writeByte(RESULT);
+                out.writeInt(id);
+                out.writeDouble(res.infected);
+                out.writeDouble(res.quarantineDays);
+                out.writeDouble(res.outbreakDays);
+                out.writeLong(millis);
+                writeBytes(out, sir);
+            }
+            catch(Exception e){
+                e.printStackTrace();
+                out.writeByte(FAILED);
+                out.writeInt(id);
+                out.writeUTF(e.toString());
+            }
+            out.flush();
+        }
+        socket.close();
+    }
+
+    /*
+     * The coordinator may still be starting, so keep trying for a while
+     */
+    private static Socket connect(String host, int port) throws IOException {
+        for(int attempt = 1; ; attempt++){
+            try{
+                return new Socket(host, port);
+            }
+            catch(ConnectException e){
+                if(attempt >= CONNECT_ATTEMPTS){
+                    throw e;
+                }
+                try{
+                    Thread.sleep(1000);
+                }
+                catch(InterruptedException ie){
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+    }
+
+    /*
+     * Scenario file as sent, under its own name so the scenario keeps it;
+     * only rewritten when it changes, which keeps Scenario's cache valid
+     */
+    private static String stage(int scenarioIndex, String fileName, byte[] text) throws IOException {
+        File dir = new File(DIR_CLUSTER, "scenarios_" + scenarioIndex);
+        dir.mkdirs();
+        Path file = new File(dir, fileName).toPath();
+        if(!Files.exists(file) || !Arrays.equals(Files.readAllBytes(file), text)){
+            Files.write(file, text);
+        }
+        return file.toString();
+    }
+
+    /*
+     * The run's SIR series in BinarySink's layout, from whichever file it wrote
+     */
+    private static byte[] readSeries(SimContext context) throws IOException {
+        Path binary = Paths.get(BinarySink.binaryFile(context.getSirFile()));
+        if(LakeTown.BINARY_OUTPUT && Files.exists(binary)){
+            return Files.readAllBytes(binary);
+        }
+        Path text = Paths.get(context.getSirFile());
+        if(!Files.exists(text)){
+            return new byte[0];
+        }
+        Person.State[] states = Person.State.values();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BinarySink.MAGIC_SIR);
+        out.writeInt(states.length);
+        for(Person.State state : states){
+            out.writeUTF(state.toString());
+        }
+        for(String line : Files.readAllLines(text, java.nio.charset.StandardCharsets.UTF_8)){
+            String[] cells = line.split(",");
+            if(cells.length != states.length + 1){
+                continue;
+            }
+            for(String cell : cells){
+                out.writeInt(Integer.parseInt(cell.trim()));
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] values) throws IOException {
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] res = new byte[in.readInt()];
+        in.readFully(res);
+        return res;
+    }
+
+    /*
+     * One seed of one scenario and what became of it
+     */
+    private static class Unit {
+        private int id;
+        private int scenarioIndex;
+        private Scenario scenario;
+        private String fileName;
+        private byte[] text;
+        private int seed;
+        private int attempts = 0;
+        private LakeSweep.Result result = null;
+        private long millis = 0;
+        private String worker = "";
+        private String error = "";
+        public Unit(int id, int scenarioIndex, Scenario scenario, String fileName, byte[] text, int seed){
+            this.id = id;
+            this.scenarioIndex = scenarioIndex;
+            this.scenario = scenario;
+            this.fileName = fileName;
+            this.text = text;
+            this.seed = seed;
+        }
+        /*
+         * LakeQueue's summary line plus the worker, or the last error
+         */
+        public String describe(){
+            String out = scenario.getName() + "," + seed + ",";
+            if(result == null){
+                return out + "FAILED after " + attempts + " attempt(s): " + error.replace(',', ';');
+            }
+            out += String.format(Locale.US, "%.0f,%.3f,%.3f,", result.infected, result.quarantineDays, result.outbreakDays);
+            out += millis + "," + worker;
+            return out;
+        }
+    }
+
+}
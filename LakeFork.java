@@ -0,0 +1,123 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/*
+ * Intervention variants forked from one checkpoint
+ * Every variant shares the outbreak up to INTERVENTION_TIME, so the engine
+ * runs that far once, saves a checkpoint, and each variant resumes from it.
+ * The checkpoint is kept under files/ and reused by later runs with the same
+ * seed and population, as long as it was saved at INTERVENTION_TIME under the
+ * settings of this run; otherwise it is saved again.
+ *
+ * Usage: LakeFork <seed> <population> <variant>...
+ * Population 0 loads FILE_COORDS; variants use LakeSweep's plan format:
+ *   "-"      no intervention
+ *   "q"      quarantine without target restaurants
+ *   "q:2,5"  quarantine targeting restaurants 2 and 5
+ */
+public class LakeFork {
+
+    public static String FILE_CHECKPOINT = "files/checkpoint";
+
+    public static void main(String[] args) throws IOException {
+
+        int seed = 12;
+        int population = 0;
+        List<String> variants = new ArrayList<String>();
+        if(args.length >= 1){
+            seed = Integer.parseInt(args[0]);
+        }
+        if(args.length >= 2){
+            population = Integer.parseInt(args[1]);
+        }
+        for(int a = 2; a < args.length; a++){
+            variants.add(args[a]);
+        }
+        if(variants.isEmpty()){
+            variants.add("-");
+            variants.add("q:2");
+        }
+        Helper.setSeed(seed);
+        LakeTown.GENERATED_POPULATION = population;
+
+        SimContext base = new SimContext(seed);
+        base.setOutputTag("base");
+        String file = prepare(base, population);
+
+        for(int v = 0; v < variants.size(); v++){
+            String variant = variants.get(v);
+            boolean intervene = variant.startsWith("q");
+            List<String> targets = new ArrayList<String>();
+            if(variant.startsWith("q:")){
+                for(String site : variant.substring(2).split(Pattern.quote(","))){
+                    if(site.length() > 0){
+                        targets.add("Restaurant " + Integer.parseInt(site) + " (R)");
+                    }
+                }
+            }
+            SimContext fork = new SimContext(seed);
+            fork.setOutputTag("fork" + v);
+            fork.setIndex(base.getIndex());
+            long start = System.nanoTime();
+            PopulationEngine engine = PopulationEngine.restore(fork, file, intervene, targets);
+            System.out.println("Variant " + variant + ": restored hour " + engine.getTime() + " in " + millis(start) + " ms.");
+            engine.run();
+            engine.findAllCases();
+            System.out.println("Quarantine Time: " + ((double)fork.getQuarantinedHours() / 24.0) + " person-days for " + fork.getTotalAffected() + " people.");
+            System.out.println("Outbreak Length: " + ((double)engine.getTime() / 24.0) + " days.");
+            fork.getSink().close();
+        }
+
+    }
+
+    /*
+     * Checkpoint at INTERVENTION_TIME for this seed and population, saved on
+     * first use; leaves the base context with the location index to restore against
+     */
+    public static String prepare(SimContext base, int population) throws IOException {
+        int seed = (int)base.getSeed();
+        String file = FILE_CHECKPOINT + "_" + seed + "_" + population + ".bin";
+        if(new File(file).exists()){
+            if(PopulationEngine.isCurrent(file, base, LakeTown.INTERVENTION_TIME)){
+                buildIndex(base, population);
+                System.out.println("Reusing checkpoint " + file);
+                return file;
+            }
+            System.out.println("Checkpoint " + file + " was saved under other settings, rebuilding it.");
+        }
+        PopulationEngine engine = null;
+        if(population > 0){
+            engine = new CityGenerator(seed, population).generateEngine(base, "Generated Town", false, new ArrayList<String>());
+        }
+        else{
+            engine = PopulationEngine.fromCity(base, LakeTown.initCity(base, false, new ArrayList<String>()), false, new ArrayList<String>());
+        }
+        engine.runUntil(LakeTown.INTERVENTION_TIME);
+        long start = System.nanoTime();
+        engine.checkpoint(file);
+        System.out.println("Checkpoint at hour " + engine.getTime() + " saved in " + millis(start) + " ms.");
+        base.getSink().close();
+        return file;
+    }
+
+    /*
+     * Rebuild the locations the checkpoint was saved against
+     */
+    private static void buildIndex(SimContext context, int population){
+        if(population > 0){
+            new CityGenerator(context.getSeed(), population).generateIndex(context);
+            return;
+        }
+        LocationIndex index = LakeTown.loadLocations(context, null);
+        index.build();
+        context.setIndex(index);
+    }
+
+    private static long millis(long start){
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+}
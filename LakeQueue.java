@@ -0,0 +1,121 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+
+/*
+ * Runs a queue of scenario files in one JVM
+ * Every file is loaded and checked before the first run, so a typo in the
+ * last scenario fails the queue straight away rather than hours in. Runs go
+ * one after another, each scenario over its seeds, with output tagged by
+ * scenario and seed. A summary line per run is written to FILE_QUEUE as soon
+ * as the run ends; a run that fails is recorded as such and the queue goes on.
+ *
+ * Usage: LakeQueue <scenario.properties or directory>...
+ * Directories contribute their *.properties files in name order.
+ */
+public class LakeQueue {
+
+    public static String FILE_QUEUE = "files/queue.txt";
+
+    public static void main(String[] args) throws IOException {
+
+        List<Scenario> scenarios = loadAll(scenarioFiles(args, 0));
+        if(scenarios == null){
+            System.exit(1);
+        }
+
+        int runs = 0;
+        for(Scenario scenario : scenarios){
+            runs += scenario.getLastSeed() - scenario.getFirstSeed() + 1;
+        }
+        System.out.println("Queue: " + scenarios.size() + " scenario(s), " + runs + " run(s).");
+        File queueFile = new File(FILE_QUEUE);
+        if(queueFile.getParentFile() != null){
+            queueFile.getParentFile().mkdirs();
+        }
+        PrintWriter queueOut = new PrintWriter(new FileWriter(queueFile));
+        List<String> summary = new ArrayList<String>();
+        int failed = 0;
+        for(Scenario scenario : scenarios){
+            scenario.apply();
+            for(int seed = scenario.getFirstSeed(); seed <= scenario.getLastSeed(); seed++){
+                System.out.println("Scenario " + scenario.getName() + ", seed " + seed);
+                long start = System.nanoTime();
+                String out = scenario.getName() + "," + seed + ",";
+                try{
+                    Helper.setSeed(seed);
+                    SimContext context = new SimContext(seed);
+                    context.setOutputTag(scenario.getOutputTag(seed));
+                    LakeSweep.Result res = LakeTown.run(context, scenario.isQuarantine(), scenario.getTargets());
+                    out += String.format(Locale.US, "%.0f,%.3f,%.3f,", res.infected, res.quarantineDays, res.outbreakDays);
+                    out += (System.nanoTime() - start) / 1000000;
+                }
+                catch(RuntimeException e){
+                    e.printStackTrace();
+                    out += "FAILED: " + e.toString().replace(',', ';');
+                    failed++;
+                }
+                summary.add(out);
+                queueOut.println(out);
+                queueOut.flush();
+            }
+        }
+        queueOut.close();
+        Helper.closeAllFiles();
+        System.out.println("Scenario,Seed,Infected,QuarantineDays,OutbreakDays,Millis");
+        for(String out : summary){
+            System.out.println(out);
+        }
+        if(failed > 0){
+            System.out.println(failed + " run(s) failed.");
+        }
+
+    }
+
+    /*
+     * Scenario files named from args[from] on, directories expanded
+     */
+    public static List<String> scenarioFiles(String[] args, int from){
+        List<String> files = new ArrayList<String>();
+        for(int a = from; a < args.length; a++){
+            File f = new File(args[a]);
+            if(f.isDirectory()){
+                File[] found = f.listFiles();
+                Arrays.sort(found);
+                for(File entry : found){
+                    if(entry.getName().endsWith(".properties")){
+                        files.add(entry.getPath());
+                    }
+                }
+            }
+            else{
+                files.add(args[a]);
+            }
+        }
+        return files;
+    }
+
+    /*
+     * Every scenario, or null after printing why the queue cannot start
+     */
+    public static List<Scenario> loadAll(List<String> files) throws IOException {
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        boolean valid = true;
+        for(String file : files){
+            try{
+                scenarios.add(Scenario.load(file));
+            }
+            catch(IllegalArgumentException e){
+                System.out.println("Invalid scenario " + e.getMessage());
+                valid = false;
+            }
+        }
+        if(!valid || scenarios.isEmpty()){
+            System.out.println(scenarios.isEmpty() ? "No scenarios to run." : "Queue not started.");
+            return null;
+        }
+        return scenarios;
+    }
+
+}
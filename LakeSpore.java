@@ -3,31 +3,65 @@ import fish.*;
 
 public class LakeSpore extends Pathogen {
     
+    public static double INFECTIVITY = 0.1;
+    public static double TOXIGENICITY = 2.0;
+    public static double RESISTANCE = 2.0;
+    public static double GROWTH = 0.5;
+    
+    private String name = "Lake Spore";
+    private double infectivity = INFECTIVITY;
+    private double toxigenicity = TOXIGENICITY;
+    private double resistance = RESISTANCE;
+    private double growth = GROWTH;
+    
+    public LakeSpore(){
+        
+    }
+    
+    /*
+     * Another strain, e.g. for an Outbreak with several at once
+     */
+    public LakeSpore(String name, double infectivity, double toxigenicity, double resistance, double growth){
+        this.name = name;
+        this.infectivity = infectivity;
+        this.toxigenicity = toxigenicity;
+        this.resistance = resistance;
+        this.growth = growth;
+    }
+    
     @Override
     public String getName() {
-        return "Lake Spore";
+        return name;
     }
     
     @Override
     public double getInfectivity(AgeGroup ageGroup) {
-        return 0.1;
+        return infectivity;
     }
     
     @Override
     public double getToxigenicity(AgeGroup ageGroup) {
-        return 2.0;
+        return toxigenicity;
     }
     
     @Override
     public double getResistance(AgeGroup ageGroup) {
-        return 2.0;
+        return resistance;
     }
     
     @Override
     public int expand(int bacteria){
-        double factor = 0.5;
+        double factor = this.growth;
         double growth = factor * Math.sqrt(bacteria);
         return (int)growth;
     }
     
+    /*
+     * Name with the settings this spore was made with, e.g. for table caching
+     */
+    @Override
+    public String toString(){
+        return getName() + "[" + infectivity + "," + toxigenicity + "," + resistance + "," + growth + "]";
+    }
+    
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import java.text.*;
+
+/*
+ * Monte Carlo sweep over LakeTown seeds and intervention plans
+ * LakeTown.run can take replicas one after another in a single JVM, as
+ * LakeQueue does, but fish's Helper keeps one random stream and one set of
+ * open files per JVM, so replicas that run at the same time cannot share one.
+ * Each replica here gets its own JVM; they run concurrently across all cores
+ * and share one compile.
+ *
+ * Each plan's summary line is: plan, replicas, failed, then mean and 95%
+ * half-width for outbreak days, infected, quarantine cost and quarantine
+ * person-days.
+ *
+ * Usage: LakeSweep <firstSeed> <lastSeed> <plans> [threads]
+ * Plans are separated by ";" and use the LakeTown argument format:
+ *   "-"      no intervention
+ *   "q"      quarantine without target restaurants
+ *   "q:2,5"  quarantine targeting restaurants 2 and 5
+ */
+public class LakeSweep {
+
+    public static String FILE_SWEEP = "files/sweep.txt";
+    public static double Z_95 = 1.96;
+
+    public static void main(String[] args) throws Exception {
+
+        int firstSeed = 1;
+        int lastSeed = 100;
+        String plans = "-;q:2";
+        int threads = Runtime.getRuntime().availableProcessors();
+        if(args.length >= 2){
+            firstSeed = Integer.parseInt(args[0]);
+            lastSeed = Integer.parseInt(args[1]);
+        }
+        if(args.length >= 3){
+            plans = args[2];
+        }
+        if(args.length >= 4){
+            threads = Integer.parseInt(args[3]);
+        }
+
+        List<Plan> planList = new ArrayList<Plan>();
+        for(String token : plans.split(Pattern.quote(";"))){
+            planList.add(new Plan(token));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<Plan, List<Future<Result>>> futures = new LinkedHashMap<Plan, List<Future<Result>>>();
+        for(Plan plan : planList){
+            List<Future<Result>> runs = new ArrayList<Future<Result>>();
+            for(int seed = firstSeed; seed <= lastSeed; seed++){
+                runs.add(pool.submit(new Replica(plan, seed)));
+            }
+            futures.put(plan, runs);
+        }
+
+        System.out.println("Sweep: seeds " + firstSeed + "-" + lastSeed + " on " + threads + " threads.");
+        for(Map.Entry<Plan, List<Future<Result>>> entry : futures.entrySet()){
+            Summary length = new Summary();
+            Summary infected = new Summary();
+            Summary cost = new Summary();
+            Summary quarantine = new Summary();
+            int failed = 0;
+            for(Future<Result> future : entry.getValue()){
+                Result res = future.get();
+                if(res == null){
+                    failed++;
+                    continue;
+                }
+                length.add(res.outbreakDays);
+                infected.add(res.infected);
+                cost.add(res.cost);
+                quarantine.add(res.quarantineDays);
+            }
+            String out = entry.getKey() + ",";
+                out += length.getCount() + ",";
+                out += failed + ",";
+                out += length + ",";
+                out += infected + ",";
+                out += cost + ",";
+                out += quarantine;
+            System.out.println(out);
+            Helper.writeFileLine(FILE_SWEEP, out);
+        }
+        pool.shutdown();
+        Helper.closeAllFiles();
+
+    }
+
+    /*
+     * One intervention setting, in LakeTown argument form
+     */
+    public static class Plan {
+        private String token;
+        private boolean intervene;
+        private String targets;
+        public Plan(String token){
+            this.token = token;
+            this.intervene = token.startsWith("q");
+            String[] parts = token.split(Pattern.quote(":"));
+            this.targets = (parts.length >= 2) ? parts[1] : "";
+        }
+        public List<String> toArgs(int seed){
+            List<String> res = new ArrayList<String>();
+            res.add(seed + "");
+            res.add(intervene ? "q" : "-");
+            res.add(targets);
+            res.add("n");
+            return res;
+        }
+        public String toString(){
+            return token;
+        }
+    }
+
+    /*
+     * Outcome of a single replica, parsed from LakeTown output
+     */
+    public static class Result {
+        public double outbreakDays = 0.0;
+        public double infected = 0.0;
+        public double cost = 0.0;
+        public double quarantineDays = 0.0;
+    }
+
+    public static class Replica implements Callable<Result> {
+        private Plan plan;
+        private int seed;
+        public Replica(Plan plan, int seed){
+            this.plan = plan;
+            this.seed = seed;
+        }
+        public Result call() throws Exception {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(java);
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add("fishsamples.LakeTown");
+            cmd.addAll(plan.toArgs(seed));
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            Process proc = pb.start();
+            Result res = new Result();
+            boolean sawLength = false;
+            NumberFormat mf = NumberFormat.getCurrencyInstance(new Locale("en", "US"));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.startsWith("Quarantined ")){
+                    String amount = line.substring(line.indexOf(" cost of ") + 9);
+                    res.cost = mf.parse(amount).doubleValue();
+                }
+                else if(line.startsWith("Quarantine Time: ")){
+                    String days = line.substring(17, line.indexOf(" person-days"));
+                    res.quarantineDays = Double.parseDouble(days);
+                }
+                else if(line.startsWith("Outbreak Length: ")){
+                    String days = line.substring(17, line.indexOf(" days."));
+                    res.outbreakDays = Double.parseDouble(days);
+                    sawLength = true;
+                }
+                else if(line.endsWith(" people were infected.")){
+                    res.infected = Double.parseDouble(line.split(Pattern.quote(" "))[0]);
+                }
+            }
+            int exit = proc.waitFor();
+            if(exit != 0 || !sawLength){
+                System.out.println("Replica " + plan + "/" + seed + " failed with exit code " + exit + ".");
+                return null;
+            }
+            return res;
+        }
+    }
+
+    /*
+     * Running mean with a normal-approximation 95% confidence interval
+     */
+    public static class Summary {
+        private int n = 0;
+        private double mean = 0.0;
+        private double m2 = 0.0;
+        public void add(double x){
+            n++;
+            double delta = x - mean;
+            mean += delta / n;
+            m2 += delta * (x - mean);
+        }
+        public int getCount(){
+            return n;
+        }
+        public double getMean(){
+            return mean;
+        }
+        public double getHalfWidth(){
+            if(n < 2){
+                return 0.0;
+            }
+            double sd = Math.sqrt(m2 / (n - 1));
+            return Z_95 * sd / Math.sqrt(n);
+        }
+        public String toString(){
+            return String.format(Locale.US, "%.3f,%.3f", getMean(), getHalfWidth());
+        }
+    }
+
+}
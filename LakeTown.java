@@ -3,6 +3,7 @@ import fish.*;
 import java.util.*;
 import java.util.regex.*;
 import java.text.*;
+import java.io.*;
 
 /*
  * F.I.S.H.
@@ -19,6 +20,7 @@ public class LakeTown {
     
     public static String INFECTION_SOURCE = "Restaurant 2 (R)";
     public static int INFECTION_TIME = 11;
+    public static Outbreak OUTBREAK = null;
     public static int INTERVENTION_DAY = 15;
     public static int INTERVENTION_TIME = 24 * INTERVENTION_DAY;
     public static int MAX_TURNS = 5000;
@@ -26,6 +28,14 @@ public class LakeTown {
     public static int ADULTS_PER_FAMILY = 2;
     public static boolean SIM_BY_DAY = true;
     public static boolean WRITE_RESULTS = true;
+    public static int GENERATED_POPULATION = 0;
+    public static boolean COMPACT_HISTORY = false;
+    public static boolean BINARY_OUTPUT = false;
+    public static boolean ASYNC_OUTPUT = true;
+    public static int INTERACTION_THREADS = 0;
+    public static boolean ENGINE_BACKEND = false;
+    public static boolean METRICS = false;
+    public static int METRICS_PORT = 0;
 
     public static void main(String[] args){
         
@@ -41,83 +51,217 @@ public class LakeTown {
         if(args.length >= 3){
             String[] sites = args[2].split(Pattern.quote(","));
             for(String site : sites){
+                if(site.length() == 0){
+                    continue;
+                }
                 int z = Integer.parseInt(site);
                 targetLocations.add("Restaurant " + z + " (R)");
             }
         }
+        if(args.length >= 4){
+            WRITE_RESULTS = !(args[3].equals("n"));
+        }
+        if(args.length >= 5){
+            GENERATED_POPULATION = Integer.parseInt(args[4]);
+        }
+        if(args.length >= 6){
+            ENGINE_BACKEND = (args[5].equals("e"));
+        }
+        if(args.length >= 7){
+            METRICS = true;
+            METRICS_PORT = Integer.parseInt(args[6]);
+        }
         Helper.setSeed(seed);
         if(!WRITE_RESULTS){
             Helper.disableWrites();
         }
+        SimContext context = new SimContext(seed);
+        run(context, intervene, targetLocations);
         
-        City city = initCity(intervene, targetLocations);
-        runSimulation(city, intervene, targetLocations);
-        findAllCases(city);
-        
-        int total = QuarantineMeasure.getTotalAffected();
-        double cost = QuarantineMeasure.getTotalCost();
-        NumberFormat mf = NumberFormat.getCurrencyInstance(new Locale("en", "US"));
-        System.out.println("Quarantined " + total + " people at cost of " + mf.format(cost));
-        System.out.println("Outbreak Length: " + ((double)city.getTime() / 24.0) + " days.");
-        Helper.closeAllFiles();
-        
+    }
+    
+    /*
+     * One run under the current settings, as main does it; returns the outcome
+     * Output, worker threads and the metrics endpoint are released however
+     * the run ends, since queues carry on in the same JVM after a failure.
+     */
+    public static LakeSweep.Result run(SimContext context, boolean intervene, List<String> targetLocations){
+        MetricsServer server = startMetrics(context);
+        try{
+            if(ENGINE_BACKEND){
+                return runEngine(context, intervene, targetLocations);
+            }
+            
+            // fish keeps these totals for the JVM; this run's share is the difference
+            int totalBefore = QuarantineMeasure.getTotalAffected();
+            double costBefore = QuarantineMeasure.getTotalCost();
+            City city = initCity(context, intervene, targetLocations);
+            if(WRITE_RESULTS && BINARY_OUTPUT){
+                context.setSink(new BinarySink(context, city, ASYNC_OUTPUT));
+            }
+            if(INTERACTION_THREADS > 0){
+                context.setInteractions(new InteractionPhase(context, INTERACTION_THREADS));
+            }
+            runSimulation(context, city, intervene, targetLocations);
+            findAllCases(context, city);
+            
+            int total = QuarantineMeasure.getTotalAffected() - totalBefore;
+            double cost = QuarantineMeasure.getTotalCost() - costBefore;
+            NumberFormat mf = NumberFormat.getCurrencyInstance(new Locale("en", "US"));
+            System.out.println("Quarantined " + total + " people at cost of " + mf.format(cost));
+            System.out.println("Quarantine Time: " + ((double)context.getQuarantinedHours() / 24.0) + " person-days for " + context.getTotalAffected() + " people.");
+            System.out.println("Outbreak Length: " + ((double)city.getTime() / 24.0) + " days.");
+            LakeSweep.Result res = new LakeSweep.Result();
+            res.outbreakDays = (double)city.getTime() / 24.0;
+            res.infected = countStates(city.getPeople())[Person.State.RESISTANT.ordinal()];
+            res.cost = cost;
+            res.quarantineDays = (double)context.getQuarantinedHours() / 24.0;
+            return res;
+        }
+        finally{
+            context.getSink().close();
+            if(context.getInteractions() != null){
+                context.getInteractions().close();
+            }
+            stopMetrics(context, server);
+        }
+    }
+    
+    /*
+     * Instrument the run if METRICS is set, serving on METRICS_PORT when above 0
+     */
+    public static MetricsServer startMetrics(SimContext context){
+        if(!METRICS){
+            return null;
+        }
+        context.setMetrics(new Metrics());
+        if(METRICS_PORT <= 0){
+            return null;
+        }
+        try{
+            MetricsServer server = new MetricsServer(context.getMetrics(), METRICS_PORT);
+            System.out.println("Metrics at http://localhost:" + server.getPort() + "/metrics");
+            return server;
+        }
+        catch(IOException e){
+            System.out.println("Metrics endpoint unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    public static void stopMetrics(SimContext context, MetricsServer server){
+        if(context.getMetrics() != null){
+            System.out.print(context.getMetrics().report());
+        }
+        if(server != null){
+            server.stop();
+        }
+    }
+    
+    /*
+     * Same run on the struct-of-arrays PopulationEngine; run closes the sink
+     */
+    public static LakeSweep.Result runEngine(SimContext context, boolean intervene, List<String> targetLocations){
+        PopulationEngine engine = null;
+        if(GENERATED_POPULATION > 0){
+            CityGenerator generator = new CityGenerator(context.getSeed(), GENERATED_POPULATION);
+            engine = generator.generateEngine(context, "Generated Town", intervene, targetLocations);
+            engine.printOverview();
+        }
+        else{
+            City city = initCity(context, false, targetLocations);
+            engine = PopulationEngine.fromCity(context, city, intervene, targetLocations);
+        }
+        if(WRITE_RESULTS && BINARY_OUTPUT){
+            context.setSink(new BinarySink(context, new ArrayList<Person>(), ASYNC_OUTPUT));
+        }
+        engine.run();
+        engine.findAllCases();
+        System.out.println("Quarantine Time: " + ((double)context.getQuarantinedHours() / 24.0) + " person-days for " + context.getTotalAffected() + " people.");
+        System.out.println("Outbreak Length: " + ((double)engine.getTime() / 24.0) + " days.");
+        LakeSweep.Result res = new LakeSweep.Result();
+        res.outbreakDays = (double)engine.getTime() / 24.0;
+        res.infected = engine.getStateCounts()[Person.State.RESISTANT.ordinal()];
+        res.quarantineDays = (double)context.getQuarantinedHours() / 24.0;
+        return res;
     }
     
     /*
      * Populate city with locations, people, and routines
      */
-    public static City initCity(boolean intervene, List<String> targetLocations){
+    public static City initCity(SimContext context, boolean intervene, List<String> targetLocations){
+        if(GENERATED_POPULATION > 0){
+            CityGenerator generator = new CityGenerator(context.getSeed(), GENERATED_POPULATION);
+            City city = generator.generate(context, "Generated Town", intervene, targetLocations);
+            printOverview(city);
+            return city;
+        }
         City city = new City("Lake Town");
-        List<String[]> coords = Helper.readCoordsFromFile(FILE_COORDS);
+        LocationIndex index = loadLocations(context, city);
+        populateCity(context, city, index, intervene, targetLocations);
+        printOverview(city);
+        return city;
+    }
+    
+    /*
+     * Read FILE_COORDS into an index, and into the city if one is given
+     */
+    public static LocationIndex loadLocations(SimContext context, City city){
+        return loadLocations(context, city, FILE_COORDS);
+    }
+    
+    public static LocationIndex loadLocations(SimContext context, City city, String file){
+        LocationIndex index = new LocationIndex();
+        List<String[]> coords = Helper.readCoordsFromFile(file);
         for(int lidx = 0; lidx < coords.size(); lidx++){
             String[] pair = coords.get(lidx);
             String id = lidx + "";
             String locName = pair[2];
             double lat = Double.parseDouble(pair[0]);
             double lng = Double.parseDouble(pair[1]);
-            Location loc = null;
-            try{
-                String symbol = locName.split(Pattern.quote("("))[1].split(Pattern.quote(")"))[0];
-                switch(symbol){
-                    case "R":
-                        loc = new Restaurant(id, lat, lng, locName);
-                        break;
-                    case "G":
-                        loc = new Grocery(id, lat, lng, locName);
-                        break;
-                    case "C":
-                        loc = new Company(id, lat, lng, locName);
-                        break;
-                    case "B":
-                        loc = new Beach(id, lat, lng, locName);
-                        break;
-                    default:
-                        break;
-                }
-            }
-            catch(Exception e){
-                loc = new Home(id, lat, lng, locName);
-                for(int f = 0; f < FAMILY_SIZE; f++){
-                    AgeGroup ag = AgeGroup.CHILD;
-                    Routine routine = new ChildRoutine();
-                    if(f < ADULTS_PER_FAMILY){
-                        ag = AgeGroup.ADULT;
-                        routine = new AdultRoutine(city, loc);
-                    }
-                    String pid = "LT" + city.getPeople().size();
-                    Person person = new Person(pid, ag, routine, loc);
-                    person.addNamedLocation("Home", loc);
-                    if(intervene){
-                        ControlMeasure control = new QuarantineMeasure(person, targetLocations);
-                        person.setControlMeasure(control);
-                    }
-                    city.addPerson(person);
+            Location loc = newLocation(context, id, lat, lng, locName);
+            if(loc != null){
+                if(city != null){
+                    city.addLocation(loc);
                 }
+                index.add(loc, lat, lng);
             }
-            if(loc != null){
-                city.addLocation(loc);   
+        }
+        return index;
+    }
+    
+    /*
+     * Location of the kind its name's symbol gives, a Home without one;
+     * null for an unknown symbol
+     */
+    public static Location newLocation(SimContext context, String id, double lat, double lng, String locName){
+        Location loc = null;
+        try{
+            String symbol = locName.split(Pattern.quote("("))[1].split(Pattern.quote(")"))[0];
+            switch(symbol){
+                case "R":
+                    loc = new Restaurant(context, id, lat, lng, locName);
+                    break;
+                case "G":
+                    loc = new Grocery(id, lat, lng, locName);
+                    break;
+                case "C":
+                    loc = new Company(id, lat, lng, locName);
+                    break;
+                case "B":
+                    loc = new Beach(id, lat, lng, locName);
+                    break;
+                default:
+                    break;
             }
         }
+        catch(Exception e){
+            loc = new Home(id, lat, lng, locName);
+        }
+        return loc;
+    }
+    
+    public static void printOverview(City city){
         Map<Class, List<Location>> locMap = new HashMap<Class, List<Location>>();
         for(Location lc : city.getLocations()){
             Class cls = lc.getClass();
@@ -135,24 +279,74 @@ public class LakeTown {
         for(Map.Entry<AgeGroup, List<Person>> entry : Person.groupPeopleByAgeGroup(city.getPeople()).entrySet()){
             System.out.println(entry.getKey() + ": " + entry.getValue().size());
         }
-        return city;
+    }
+    
+    /*
+     * Index the loaded locations and move a family into every home
+     */
+    public static void populateCity(SimContext context, City city, LocationIndex index, boolean intervene, List<String> targetLocations){
+        populateCity(context, city, index, intervene, targetLocations, null, null);
+    }
+    
+    /*
+     * Same, with a family size and adult count per home in index order
+     */
+    public static void populateCity(SimContext context, City city, LocationIndex index, boolean intervene, List<String> targetLocations, int[] familySizes, int[] adultCounts){
+        index.build();
+        context.setIndex(index);
+        List<Location> targetSites = ContactIndex.findTargets(index, targetLocations);
+        List<Location> homes = index.getHomes();
+        for(int hidx = 0; hidx < homes.size(); hidx++){
+            Location home = homes.get(hidx);
+            int familySize = (familySizes == null) ? FAMILY_SIZE : familySizes[hidx];
+            int adults = (adultCounts == null) ? ADULTS_PER_FAMILY : adultCounts[hidx];
+            for(int f = 0; f < familySize; f++){
+                AgeGroup ag = AgeGroup.CHILD;
+                Routine routine = new ChildRoutine();
+                if(f < adults){
+                    ag = AgeGroup.ADULT;
+                    routine = new AdultRoutine(context, home);
+                }
+                String pid = "LT" + city.getPeople().size();
+                Person person = new Person(pid, ag, routine, home);
+                person.addNamedLocation("Home", home);
+                if(intervene){
+                    ControlMeasure control = new QuarantineMeasure(context, person, targetSites);
+                    person.setControlMeasure(control);
+                }
+                city.addPerson(person);
+            }
+        }
+        context.indexPeople(city.getPeople());
+        if(COMPACT_HISTORY){
+            context.setHistory(new HistoryStore(index, city.getPeople()));
+            context.setCases(new CaseLog(context.getHistory(), index, city.getPeople().size()));
+        }
+        if(intervene){
+            context.setContacts(new ContactIndex(index, city.getPeople(), targetSites));
+        }
     }
     
     public static class QuarantineMeasure extends ControlMeasure {
         
+        public static int WINDOW_DAYS = 22;
+        public static int QUARANTINE_HOURS = 24 * 11;
+        
         private boolean searchedHistory = false;
         private boolean wasQuarantined = false;
         private boolean isQuarantined = false;
         private int timeQuarantined = 0;
         private int quarantineFor = 0;
         private Location site = null;
-        private List<String> targetLocations;
+        private List<Location> targetLocations;
+        private SimContext context;
         
-        public QuarantineMeasure(Person person, List<String> targetLocations){
+        public QuarantineMeasure(SimContext context, Person person, List<Location> targetLocations){
             super("Quarantine");
+            this.context = context;
             this.setStartDay(INTERVENTION_DAY);
-            this.setEndDay(INTERVENTION_DAY + 22);
-            this.quarantineFor = 24 * 11;
+            this.setEndDay(INTERVENTION_DAY + WINDOW_DAYS);
+            this.quarantineFor = QUARANTINE_HOURS;
             this.targetLocations = targetLocations;
             this.site = person.getNamedLocation("Home");
         }
@@ -166,11 +360,14 @@ public class LakeTown {
                     res = nextLoc;
                     isQuarantined = false;
                 }
+                else{
+                    context.addQuarantinedHour();
+                }
                 timeQuarantined++;
             }
             else if(!wasQuarantined && person.getState() == Person.State.SUSCEPTIBLE){
-                for(String locName : targetLocations){
-                    if(nextLoc.getName().equals(locName)){
+                for(Location target : targetLocations){
+                    if(nextLoc == target){
                         isQuarantined = true;
                         wasQuarantined = true;
                         break;
@@ -178,66 +375,112 @@ public class LakeTown {
                 }
                 if(!isQuarantined && !searchedHistory){
                     searchedHistory = true;
-                    for(String locName : targetLocations){
-                        for(Person.Record rec : person.getHistory()){
-                            if(rec.getLocation().getName().equals(locName)){
-                                isQuarantined = true;
-                                wasQuarantined = true;
-                                break;
+                    ContactIndex contacts = context.getContacts();
+                    int pidx = context.getOrdinal(person);
+                    for(Location target : targetLocations){
+                        if(contacts != null && pidx >= 0){
+                            isQuarantined = contacts.hasVisited(pidx, target);
+                        }
+                        else{
+                            HistoryStore.Cursor rec = context.history(person);
+                            while(rec.next()){
+                                if(rec.getLocation() == target){
+                                    isQuarantined = true;
+                                    break;
+                                }
                             }
                         }
                         if(isQuarantined){
+                            wasQuarantined = true;
                             break;
                         }
                     }
                 }
+                if(isQuarantined){
+                    context.addAffected();
+                }
             }
             return res;
         }
     }
     
     public static class AdultRoutine extends Routine {
+        public static final byte HOME = 0;
+        public static final byte WORK = 1;
+        public static final byte LUNCH = 2;
+        public static int WORK_START = 9;
+        public static int WORK_END = 16;
+        public static int LUNCH_HOUR = 11;
+        /*
+         * Where an adult is at each hour of the day: home outside 9-16,
+         * out to lunch at 11, at work otherwise
+         */
+        public static byte[] SCHEDULE = compileSchedule();
+        /*
+         * Change the working day; only between runs, as routines read it every hour
+         */
+        public static void setHours(int workStart, int workEnd, int lunchHour){
+            WORK_START = workStart;
+            WORK_END = workEnd;
+            LUNCH_HOUR = lunchHour;
+            SCHEDULE = compileSchedule();
+        }
+        private static byte[] compileSchedule(){
+            byte[] res = new byte[24];
+            for(int h = 0; h < 24; h++){
+                if(h < WORK_START || h > WORK_END){
+                    res[h] = HOME;
+                }
+                else if(h == LUNCH_HOUR){
+                    res[h] = LUNCH;
+                }
+                else{
+                    res[h] = WORK;
+                }
+            }
+            return res;
+        }
+        /*
+         * Whether the routine can send an adult somewhere new at this hour
+         */
+        public static boolean changesAt(int hour){
+            return SCHEDULE[hour] == LUNCH || SCHEDULE[hour] != SCHEDULE[(hour + 23) % 24];
+        }
+        /*
+         * Position down the nearest-first restaurant ranking for a |N(0,1)| draw
+         */
+        public static int pickLunch(double gaussian, int choices){
+            double factor = 4.0;
+            int rand = (int) (factor * Math.abs(gaussian));
+            int maxIndex = choices - 1;
+            if(rand > maxIndex){
+                rand = maxIndex;
+            }
+            return rand;
+        }
         private Location home;
         private Location workplace;
         private Location groceryStore;
-        public AdultRoutine(City city, Location home){
+        private SimContext context;
+        public AdultRoutine(SimContext context, Location home){
+            this.context = context;
             this.home = home;
-            List<Location> workplaces = new ArrayList<Location>();
-            List<Location> groceries = new ArrayList<Location>();
-            for(Location loc : city.getLocations()){
-                if(loc instanceof Company || loc instanceof Restaurant || loc instanceof Grocery){
-                    workplaces.add(loc);
-                }
-                if(loc instanceof Grocery){
-                    groceries.add(loc);
-                }
-            }
-            int randomWork = Helper.getRandom().nextInt(workplaces.size());
-            int randomGroc = Helper.getRandom().nextInt(groceries.size());
+            List<Location> workplaces = context.getIndex().getWorkplaces();
+            List<Location> groceries = context.getIndex().getGroceries();
+            int randomWork = context.nextInt(workplaces.size());
+            int randomGroc = context.nextInt(groceries.size());
             this.workplace = workplaces.get(randomWork);
             this.groceryStore = groceries.get(randomGroc);
         }
         public Location getNextLocation(Person person, City city){
             Location res = person.getLocation();
-            if(city.getHour() < 9 || city.getHour() > 16){
+            byte where = SCHEDULE[city.getHour()];
+            if(where == HOME){
                 res = this.home;
             }
-            else if(city.getHour() == 11){
-                List<Location> choices = new ArrayList<Location>();
-                for(Location loc : city.getLocations()){
-                    if(loc instanceof Restaurant){
-                        choices.add(loc);
-                    }
-                }
-                List<Location> nearbyChoices = Location.getWithin(person.getLocation(), Double.POSITIVE_INFINITY, choices);
-                double gaussian = Math.abs(Helper.getRandom().nextGaussian());
-                double factor = 4.0;
-                int rand = (int) (factor * gaussian);
-                int maxIndex = nearbyChoices.size() - 1;
-                if(rand > maxIndex){
-                    rand = maxIndex;
-                }
-                res = choices.get(rand);
+            else if(where == LUNCH){
+                Location[] nearbyChoices = context.getIndex().getNearestRestaurants(person.getLocation());
+                res = nearbyChoices[pickLunch(context.nextGaussian(), nearbyChoices.length)];
             }
             else{
                 res = this.workplace;
@@ -292,32 +535,71 @@ public class LakeTown {
     }
     
     public static class Restaurant extends Location {
-        private double frequencyEatContaminatedItem = 0.54;
-        public Restaurant(String id, double lat, double lng, String name){
+        public static double EAT_CONTAMINATED = 0.54;
+        private double frequencyEatContaminatedItem = EAT_CONTAMINATED;
+        private SimContext context;
+        private InteractionPhase.Exposures exposures = new InteractionPhase.Exposures();
+        private Person[] spreaders = new Person[16];
+        public Restaurant(SimContext context, String id, double lat, double lng, String name){
             super(id, lat, lng, name);
+            this.context = context;
         }
         public void doInteractions(List<Person> people){
-            List<Person> contagious = Person.getContagious(people);
-            for(Person p : contagious){
-                for(int pidx = 0; pidx < 2; pidx++){
-                    int rand = Helper.getRandom().nextInt(people.size());
-                    Person q = people.get(rand);
-                    if(p.getPathogen() != null){
-                        q.doExposure(p.getPathogen());
+            InteractionPhase phase = context.getInteractions();
+            if(phase != null){
+                phase.defer(this, people);
+                return;
+            }
+            collectExposures(people, context.getRandom(), exposures);
+            int attempted = exposures.size();
+            int infected = exposures.apply();
+            TickMetrics tick = context.getTickMetrics();
+            if(tick != null){
+                tick.addExposures(attempted, infected);
+            }
+        }
+        public double getFrequencyEatContaminatedItem(){
+            return frequencyEatContaminatedItem;
+        }
+        /*
+         * Person.getContagious for one diner, without building a list
+         * Assumes fish's definition: a person who carries a pathogen that
+         * has reached its latent stage. If fish changes it, change this.
+         */
+        public static boolean isContagious(Person p){
+            return p.getPathogen() != null && p.isLatent();
+        }
+        /*
+         * Decide who is exposed to what, without exposing anyone yet
+         * One pass over the diners gathers the contagious ones into a
+         * scratch array kept by the restaurant, so lunches allocate nothing.
+         * Exposures go into a reused buffer.
+         */
+        public void collectExposures(List<Person> people, SplittableRandom random, InteractionPhase.Exposures out){
+            int n = people.size();
+            int spreading = 0;
+            for(int k = 0; k < n; k++){
+                Person p = people.get(k);
+                if(isContagious(p)){
+                    if(spreading == spreaders.length){
+                        spreaders = Arrays.copyOf(spreaders, Math.max(16, 2 * spreading));
                     }
+                    spreaders[spreading++] = p;
+                }
+            }
+            for(int c = 0; c < spreading; c++){
+                Pathogen pathogen = spreaders[c].getPathogen();
+                spreaders[c] = null;
+                for(int pick = 0; pick < 2; pick++){
+                    out.add(people.get(random.nextInt(n)), pathogen);
                 }
             }
             if(this.isInfected()){
-                int eatContaminatedFood = (int)(frequencyEatContaminatedItem * (double)people.size());
-                int wereInfected = 0;
+                Pathogen food = this.getPathogen();
+                int eatContaminatedFood = (int)(frequencyEatContaminatedItem * (double)n);
                 for(int c = 0; c < eatContaminatedFood; c++){
-                    int rand = Helper.getRandom().nextInt(people.size());
-                    people.get(rand).doExposure(this.getPathogen());
-                    if(people.get(rand).getPathogen() != null){
-                        wereInfected++;
-                    }
+                    out.add(people.get(random.nextInt(n)), food);
                 }
-                //System.out.println(wereInfected + "/" + eatContaminatedFood + "/" + people.size() + " people who ate contaminated food were infected.");
             }
         }
     }
@@ -331,12 +613,26 @@ public class LakeTown {
         }
     }
     
+    /*
+     * Strains and sources for the next run; without an OUTBREAK set, the
+     * standard one from INFECTION_SOURCE and INFECTION_TIME
+     */
+    public static Outbreak getOutbreak(){
+        return (OUTBREAK != null) ? OUTBREAK : Outbreak.standard();
+    }
+    
     /*
      * Infect a single location
      */
     public static void initInfection(City city){
-        Pathogen pathogen = new LakeSpore();
-        Location loc = Location.getLocationByName(city.getLocations(), INFECTION_SOURCE);
+        initInfection(city, new LakeSpore(), INFECTION_SOURCE);
+    }
+    
+    public static void initInfection(City city, Pathogen pathogen, String sourceName){
+        Location loc = Location.getLocationByName(city.getLocations(), sourceName);
+        if(loc == null){
+            throw new RuntimeException("No infection source named " + sourceName);
+        }
         loc.doInfect(pathogen);
         System.out.println("Infected started at: " + loc);
     }
@@ -344,16 +640,29 @@ public class LakeTown {
     /*
      * Run outbreak to completion
      */
-    public static void runSimulation(City city, boolean intervene, List<String> targetLocations){
-        Helper.printCityLine(FILE_SIR, city);
-        Helper.printLocationLine(FILE_GEO, city);
+    public static void runSimulation(SimContext context, City city, boolean intervene, List<String> targetLocations){
+        context.getSink().writeCity(city);
+        context.getSink().writeLocations(city);
+        if(context.getContacts() != null){
+            context.getContacts().record();
+        }
+        Outbreak plan = getOutbreak();
+        Location[] lastLocations = null;
+        if(context.getTickMetrics() != null){
+            lastLocations = new Location[city.getPeople().size()];
+            for(int pidx = 0; pidx < lastLocations.length; pidx++){
+                lastLocations[pidx] = city.getPeople().get(pidx).getLocation();
+            }
+        }
         boolean outbreak = true;
         while(outbreak){
             if(city.getTime() % 600 == 0){
                 System.out.println("Simulation Day: " + (city.getTime() / 24));
             }
-            if(city.getTime() == INFECTION_TIME){
-                initInfection(city);
+            for(Outbreak.Source source : plan.getSources()){
+                if(source.getTime() == city.getTime()){
+                    initInfection(city, plan.getStrain(source.getStrain()), source.getLocation());
+                }
             }
             if(intervene && city.getTime() == INTERVENTION_TIME){
                 for(String targetName : targetLocations){
@@ -362,16 +671,43 @@ public class LakeTown {
                     System.out.println(disRes + " disinfected " + source);
                 }
             }
+            int hour = city.getTime();
+            TickMetrics tick = context.getTickMetrics();
+            if(tick != null){
+                tick.beginTick();
+            }
             city.doTurn();
-            if(SIM_BY_DAY){
-                if(city.getTime() % 24 == 0){
-                    Helper.printCityLine(FILE_SIR, city);
-                    Helper.printLocationLine(FILE_GEO, city);
+            if(tick != null){
+                tick.endPhase(TickMetrics.TURN);
+            }
+            if(context.getInteractions() != null){
+                context.getInteractions().flush(hour);
+            }
+            if(tick != null){
+                tick.endPhase(TickMetrics.INTERACTIONS);
+            }
+            if(tick != null && lastLocations != null){
+                tick.addMoved(countMoves(city.getPeople(), lastLocations));
+            }
+            if(context.getHistory() != null){
+                context.getHistory().record(hour);
+            }
+            if(context.getContacts() != null){
+                context.getContacts().record();
+            }
+            if(tick != null){
+                tick.endPhase(TickMetrics.BOOKKEEPING);
+            }
+            if(!SIM_BY_DAY || city.getTime() % 24 == 0){
+                context.getSink().writeCity(city);
+                context.getSink().writeLocations(city);
+                if(tick != null){
+                    tick.setStateCounts(countStates(city.getPeople()));
                 }
             }
-            else{
-                Helper.printCityLine(FILE_SIR, city);
-                Helper.printLocationLine(FILE_GEO, city);
+            if(tick != null){
+                tick.endPhase(TickMetrics.OUTPUT);
+                tick.endTick(city.getTime());
             }
             boolean pathogenFound = false;
             for(Person person : city.getPeople()){
@@ -380,7 +716,7 @@ public class LakeTown {
                     break;
                 }
             }
-            if(city.getTime() <= INFECTION_TIME){
+            if(city.getTime() <= plan.getLastTime()){
                 outbreak = true;
             }
             else if(!pathogenFound){
@@ -395,18 +731,43 @@ public class LakeTown {
         }
     }
 
+    /*
+     * People whose location changed since the last call; last is updated as it goes
+     */
+    private static int countMoves(List<Person> people, Location[] last){
+        int moved = 0;
+        for(int pidx = 0; pidx < last.length; pidx++){
+            Location now = people.get(pidx).getLocation();
+            if(now != last[pidx]){
+                last[pidx] = now;
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /*
+     * People per Person.State, indexed by ordinal
+     */
+    private static int[] countStates(List<Person> people){
+        int[] res = new int[Person.State.values().length];
+        for(Person p : people){
+            res[p.getState().ordinal()]++;
+        }
+        return res;
+    }
+
     /*
      * Gather and report all infected cases
      */    
-    public static void findAllCases(City city){
+    public static void findAllCases(SimContext context, City city){
         List<Person> resistants = Person.groupPeopleByState(city.getPeople()).get(Person.State.RESISTANT);
+        CaseLog cases = context.getCases();
         int c = 0;
         for(Person p : resistants){
-            List<Person.Record> history = p.getHistory();
-            boolean followsAdultRoutine = (p.getRoutine() instanceof AdultRoutine);
             Location home = null;
             Location work = null;
-            if(followsAdultRoutine){
+            if(p.getRoutine() instanceof AdultRoutine){
                 AdultRoutine routine = (AdultRoutine)p.getRoutine();
                 home = routine.getHome();
                 work = routine.getWorkplace();    
@@ -414,46 +775,62 @@ public class LakeTown {
             else{
                 home = p.getLocation();
             }
-            List<Location> lunches = new ArrayList<Location>();
-            int feltSickOn = -1;
-            int feltBetterOn = -1;
-            for(Person.Record rec : history){
-                if(rec.getState() == Person.State.RESISTANT && feltBetterOn < 0){
-                    feltBetterOn = rec.getTime();
-                }
-                else if(rec.getState() == Person.State.INFECTED && feltSickOn < 0){
-                    feltSickOn = rec.getTime();
-                }
-                else if(rec.getState() == Person.State.SUSCEPTIBLE && (rec.getTime() % 24) == 12){
-                    lunches.add(rec.getLocation());
-                }
-            }
-            if(feltBetterOn < 0){
-                feltBetterOn = history.get(history.size()-1).getTime() + 1;
-            }
-            String out = "Case " + c + ",";
-                out += p.getAge() + ",";
-                out += feltSickOn + ",";
-                out += feltBetterOn + ",";
-                out += home.getName() + "%";
-            if(followsAdultRoutine){
-                out += work.getName() + "%";
+            if(cases != null){
+                int pidx = context.getOrdinal(p);
+                context.getSink().writeCase(cases.describe(c, p.getAge(), home, work, pidx));
+                context.getSink().writeEncodedCase(cases.encode(c, p.getAge(), home, work, pidx));
             }
             else{
-                out += "---%";
+                context.getSink().writeCase(describeCase(c, p.getAge(), home, work, context.history(p)));
+                context.getSink().writeEncodedCase(encodeCase(c, p.getAge(), home, work, context.history(p)));
             }
-            for(Location lunch : lunches){
-                out += lunch.getName() + ",";
-            }
-            Helper.writeFileLine(FILE_CASES, out);
-            String enc = encodeCase(p, c);
-            Helper.writeFileLine(FILE_ENC_CASES, enc);
             c++;
         }
         System.out.println(resistants.size() + " people were infected.");
     }
     
-    public static void findEarlyCases(City city){
+    /*
+     * One line of the cases file; work is null for people without a job
+     */
+    public static String describeCase(int c, int age, Location home, Location work, HistoryStore.Cursor rec){
+        List<Location> lunches = new ArrayList<Location>();
+        int feltSickOn = -1;
+        int feltBetterOn = -1;
+        int lastTime = -1;
+        while(rec.next()){
+            lastTime = rec.getTime();
+            if(rec.getState() == Person.State.RESISTANT && feltBetterOn < 0){
+                feltBetterOn = rec.getTime();
+            }
+            else if(rec.getState() == Person.State.INFECTED && feltSickOn < 0){
+                feltSickOn = rec.getTime();
+            }
+            else if(rec.getState() == Person.State.SUSCEPTIBLE && (rec.getTime() % 24) == (AdultRoutine.LUNCH_HOUR + 1) % 24){
+                lunches.add(rec.getLocation());
+            }
+        }
+        if(feltBetterOn < 0){
+            feltBetterOn = lastTime + 1;
+        }
+        StringBuilder out = new StringBuilder();
+            out.append("Case ").append(c).append(",");
+            out.append(age).append(",");
+            out.append(feltSickOn).append(",");
+            out.append(feltBetterOn).append(",");
+            out.append(home.getName()).append("%");
+        if(work != null){
+            out.append(work.getName()).append("%");
+        }
+        else{
+            out.append("---%");
+        }
+        for(Location lunch : lunches){
+            out.append(lunch.getName()).append(",");
+        }
+        return out.toString();
+    }
+    
+    public static void findEarlyCases(SimContext context, City city){
         /*
          * Gather initial early cases
          * Observe from SIR graph where they fall
@@ -462,9 +839,9 @@ public class LakeTown {
         int[] range = {188, 204};
         List<Person> earlyCases = new ArrayList<Person>();
         for(Person p : city.getPeople()){
-            for(int h = range[0]; h <= range[1]; h++){
-                Person.Record rec = p.getHistory().get(h);
-                if(rec.getState() == Person.State.INFECTED){
+            HistoryStore.Cursor rec = context.history(p);
+            while(rec.next() && rec.getTime() <= range[1]){
+                if(rec.getTime() >= range[0] && rec.getState() == Person.State.INFECTED){
                     earlyCases.add(p);
                     break;
                 }
@@ -481,45 +858,59 @@ public class LakeTown {
         int[] retrace = {0, range[1]};
         int ct = 1;
         for(Person p : earlyCases){
-            String visits = "Case " + ct + "," + p.getAge() + ",";
-            for(int h = retrace[0]; h <= retrace[1]; h++){
-                Person.Record rec = p.getHistory().get(h);
-                visits += rec.getLocation().getName() + "/" + rec.getState() + ",";
+            StringBuilder visits = new StringBuilder();
+            visits.append("Case ").append(ct).append(",").append(p.getAge()).append(",");
+            HistoryStore.Cursor rec = context.history(p);
+            while(rec.next() && rec.getTime() <= retrace[1]){
+                if(rec.getTime() < retrace[0]){
+                    continue;
+                }
+                visits.append(rec.getLocation().getName()).append("/").append(rec.getState()).append(",");
             }
-            Helper.writeFileLine(FILE_CASES, visits);
+            context.getSink().writeCase(visits.toString());
             ct++;
         }
     }
     
-    public static String encodeCase(Person p, int index){
-        int age = p.getAge();
-        int timeSick = 0;
-        String home = "N/A";
-        String work = "N/A";
-        String visits = "";
+    public static String encodeCase(SimContext context, Person p, int index){
+        Location home = null;
+        Location work = null;
         if(p.getRoutine() instanceof AdultRoutine){
             AdultRoutine routine = (AdultRoutine)p.getRoutine();
-            String homeName = routine.getHome().getName();
-            home = homeName.split(Pattern.quote(" "))[1];
-            String workName = routine.getWorkplace().getName();
-            work = workName; //workName.split(Pattern.quote(" "))[1];
+            home = routine.getHome();
+            work = routine.getWorkplace();
         }
-        for(Person.Record rec : p.getHistory()){
+        return encodeCase(index, p.getAge(), home, work, context.history(p));
+    }
+    
+    /*
+     * One line of the encoded cases file; home and work are only given for adults
+     */
+    public static String encodeCase(int index, int age, Location home, Location work, HistoryStore.Cursor rec){
+        int timeSick = 0;
+        String homeNum = "N/A";
+        String workName = "N/A";
+        StringBuilder visits = new StringBuilder();
+        if(work != null){
+            homeNum = home.getName().split(Pattern.quote(" "))[1];
+            workName = work.getName(); //work.getName().split(Pattern.quote(" "))[1];
+        }
+        while(rec.next()){
             if(rec.getState() == Person.State.INFECTED){
                 timeSick = rec.getTime();
                 break;
             }
-            if((rec.getTime() % 24) == 11){
+            if((rec.getTime() % 24) == AdultRoutine.LUNCH_HOUR){
                 if(visits.length() > 0){
-                    visits += ",";
+                    visits.append(",");
                 }
                 String locName = rec.getLocation().getName();
                 String locNum = locName.split(Pattern.quote(" "))[1];
-                visits += locNum;
+                visits.append(locNum);
             }
         }
         String dl = "%";
-        String res = index + dl + age + dl + timeSick + dl + home + dl + work + dl + visits;
+        String res = index + dl + age + dl + timeSick + dl + homeNum + dl + workName + dl + visits;
         return res;
     }
 
@@ -0,0 +1,164 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * Typed lookup tables over a city's locations, built once after the map is loaded
+ * Routines read from here instead of scanning city.getLocations() every turn.
+ */
+public class LocationIndex {
+
+    /*
+     * Lunch picks are |N(0,1)| * 4 places down the ranking, so 24 covers six sigma
+     */
+    public static int LUNCH_CHOICES = 24;
+
+    private List<Location> locations = new ArrayList<Location>();
+    private Map<Location, Integer> ordinals = new IdentityHashMap<Location, Integer>();
+    private double[] lats = new double[16];
+    private double[] lngs = new double[16];
+    private List<Location> restaurants = new ArrayList<Location>();
+    private List<Location> groceries = new ArrayList<Location>();
+    private List<Location> workplaces = new ArrayList<Location>();
+    private List<Location> homes = new ArrayList<Location>();
+    private Location[][] nearestRestaurants = null;
+    private int[][] nearestRestaurantOrdinals = null;
+    private SpatialGrid allGrid = new SpatialGrid();
+    private SpatialGrid restaurantGrid = new SpatialGrid();
+    private SpatialGrid groceryGrid = new SpatialGrid();
+
+    public void add(Location loc, double lat, double lng){
+        int idx = locations.size();
+        if(idx == lats.length){
+            lats = Arrays.copyOf(lats, idx * 2);
+            lngs = Arrays.copyOf(lngs, idx * 2);
+        }
+        lats[idx] = lat;
+        lngs[idx] = lng;
+        locations.add(loc);
+        ordinals.put(loc, idx);
+        allGrid.add(idx, lat, lng);
+        if(loc instanceof LakeTown.Restaurant){
+            restaurants.add(loc);
+            restaurantGrid.add(idx, lat, lng);
+        }
+        if(loc instanceof LakeTown.Grocery){
+            groceries.add(loc);
+            groceryGrid.add(idx, lat, lng);
+        }
+        if(loc instanceof LakeTown.Company || loc instanceof LakeTown.Restaurant || loc instanceof LakeTown.Grocery){
+            workplaces.add(loc);
+        }
+        if(loc instanceof LakeTown.Home){
+            homes.add(loc);
+        }
+    }
+
+    /*
+     * Build the spatial grids and rank the nearest restaurants from every location
+     */
+    public void build(){
+        allGrid.build();
+        restaurantGrid.build();
+        groceryGrid.build();
+        int n = locations.size();
+        nearestRestaurants = new Location[n][];
+        nearestRestaurantOrdinals = new int[n][];
+        int[] found = new int[LUNCH_CHOICES];
+        for(int lidx = 0; lidx < n; lidx++){
+            int count = restaurantGrid.nearest(lats[lidx], lngs[lidx], LUNCH_CHOICES, found);
+            Location[] ranked = new Location[count];
+            for(int r = 0; r < count; r++){
+                ranked[r] = locations.get(found[r]);
+            }
+            nearestRestaurants[lidx] = ranked;
+            nearestRestaurantOrdinals[lidx] = Arrays.copyOf(found, count);
+        }
+    }
+
+    /*
+     * Restaurants ordered nearest first from the given location
+     */
+    public Location[] getNearestRestaurants(Location origin){
+        return nearestRestaurants[getOrdinal(origin)];
+    }
+
+    /*
+     * Same ranking as ordinals, for callers that work in ordinals
+     */
+    public int[] getNearestRestaurants(int lidx){
+        return nearestRestaurantOrdinals[lidx];
+    }
+
+    /*
+     * Up to k groceries ordered nearest first from the given location
+     */
+    public List<Location> getNearestGroceries(Location origin, int k){
+        return nearest(groceryGrid, origin, k);
+    }
+
+    private List<Location> nearest(SpatialGrid grid, Location origin, int k){
+        int idx = getOrdinal(origin);
+        int[] found = new int[k];
+        int count = grid.nearest(lats[idx], lngs[idx], k, found);
+        List<Location> res = new ArrayList<Location>(count);
+        for(int r = 0; r < count; r++){
+            res.add(locations.get(found[r]));
+        }
+        return res;
+    }
+
+    /*
+     * All locations within radius (in degrees) of the given location
+     */
+    public List<Location> getWithin(Location origin, double radius){
+        int idx = getOrdinal(origin);
+        List<Location> res = new ArrayList<Location>();
+        for(int found : allGrid.within(lats[idx], lngs[idx], radius)){
+            res.add(locations.get(found));
+        }
+        return res;
+    }
+
+    public int getOrdinal(Location loc){
+        Integer idx = ordinals.get(loc);
+        return (idx == null) ? -1 : idx;
+    }
+
+    public Location getLocation(int ordinal){
+        return locations.get(ordinal);
+    }
+
+    public int size(){
+        return locations.size();
+    }
+
+    public double getLat(int ordinal){
+        return lats[ordinal];
+    }
+
+    public double getLng(int ordinal){
+        return lngs[ordinal];
+    }
+
+    public List<Location> getLocations(){
+        return locations;
+    }
+
+    public List<Location> getRestaurants(){
+        return restaurants;
+    }
+
+    public List<Location> getGroceries(){
+        return groceries;
+    }
+
+    public List<Location> getWorkplaces(){
+        return workplaces;
+    }
+
+    public List<Location> getHomes(){
+        return homes;
+    }
+
+}
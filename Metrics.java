@@ -0,0 +1,196 @@
+package fishsamples;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Lightweight registry of counters, gauges and histograms for a run
+ * Histograms use power-of-two buckets, so recording is a couple of atomic
+ * adds and percentiles are accurate to within a factor of two. Names carry
+ * their unit, e.g. "tick.routing_ns" or "tick.allocated_bytes".
+ * Read with report() for people or scrape() for a metrics collector.
+ */
+public class Metrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private Map<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+    private Map<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+    private Map<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+
+    public Counter counter(String name){
+        Counter res = counters.get(name);
+        if(res == null){
+            counters.putIfAbsent(name, new Counter());
+            res = counters.get(name);
+        }
+        return res;
+    }
+
+    public Gauge gauge(String name){
+        Gauge res = gauges.get(name);
+        if(res == null){
+            gauges.putIfAbsent(name, new Gauge());
+            res = gauges.get(name);
+        }
+        return res;
+    }
+
+    public Histogram histogram(String name){
+        Histogram res = histograms.get(name);
+        if(res == null){
+            histograms.putIfAbsent(name, new Histogram());
+            res = histograms.get(name);
+        }
+        return res;
+    }
+
+    /*
+     * Bytes allocated so far by the calling thread, or -1 if the JVM cannot tell
+     */
+    public static long allocatedBytes(){
+        if(THREADS instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean)THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /*
+     * Human-readable summary, one line per metric
+     */
+    public String report(){
+        StringBuilder out = new StringBuilder();
+        out.append("Metrics Report\n");
+        for(Map.Entry<String, Counter> entry : counters.entrySet()){
+            out.append(entry.getKey()).append(": ").append(entry.getValue().get()).append("\n");
+        }
+        for(Map.Entry<String, Gauge> entry : gauges.entrySet()){
+            out.append(entry.getKey()).append(": ").append(entry.getValue().get()).append("\n");
+        }
+        for(Map.Entry<String, Histogram> entry : histograms.entrySet()){
+            Histogram h = entry.getValue();
+            out.append(entry.getKey()).append(": count=").append(h.getCount());
+            out.append(" mean=").append(h.getCount() == 0 ? 0 : h.getSum() / h.getCount());
+            out.append(" p50=").append(h.percentile(0.50));
+            out.append(" p90=").append(h.percentile(0.90));
+            out.append(" p99=").append(h.percentile(0.99));
+            out.append(" max=").append(h.getMax());
+            out.append(" total=").append(h.getSum()).append("\n");
+        }
+        return out.toString();
+    }
+
+    /*
+     * Prometheus text format, with dots in names turned into underscores
+     */
+    public String scrape(){
+        StringBuilder out = new StringBuilder();
+        for(Map.Entry<String, Counter> entry : counters.entrySet()){
+            String name = metricName(entry.getKey());
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(" ").append(entry.getValue().get()).append("\n");
+        }
+        for(Map.Entry<String, Gauge> entry : gauges.entrySet()){
+            String name = metricName(entry.getKey());
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(" ").append(entry.getValue().get()).append("\n");
+        }
+        for(Map.Entry<String, Histogram> entry : histograms.entrySet()){
+            String name = metricName(entry.getKey());
+            Histogram h = entry.getValue();
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for(int b = 0; b < Histogram.BUCKETS; b++){
+                long inBucket = h.buckets.get(b);
+                if(inBucket == 0){
+                    continue;
+                }
+                cumulative += inBucket;
+                out.append(name).append("_bucket{le=\"").append(Histogram.upperBound(b)).append("\"} ").append(cumulative).append("\n");
+            }
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(h.getCount()).append("\n");
+            out.append(name).append("_sum ").append(h.getSum()).append("\n");
+            out.append(name).append("_count ").append(h.getCount()).append("\n");
+        }
+        return out.toString();
+    }
+
+    private static String metricName(String name){
+        return "fish_" + name.replace('.', '_');
+    }
+
+    public static class Counter {
+        private AtomicLong value = new AtomicLong();
+        public void add(long n){
+            value.addAndGet(n);
+        }
+        public long get(){
+            return value.get();
+        }
+    }
+
+    public static class Gauge {
+        private volatile long value = 0;
+        public void set(long v){
+            value = v;
+        }
+        public long get(){
+            return value;
+        }
+    }
+
+    public static class Histogram {
+        public static final int BUCKETS = 64;
+        private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private AtomicLong count = new AtomicLong();
+        private AtomicLong sum = new AtomicLong();
+        private AtomicLong max = new AtomicLong();
+        /*
+         * Bucket b holds values from 2^(b-1) up to 2^b - 1; negative values are dropped
+         */
+        public void record(long value){
+            if(value < 0){
+                return;
+            }
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long seen = max.get();
+            while(value > seen && !max.compareAndSet(seen, value)){
+                seen = max.get();
+            }
+        }
+        public static long upperBound(int b){
+            return (b >= 63) ? Long.MAX_VALUE : (1L << b) - 1;
+        }
+        public long getCount(){
+            return count.get();
+        }
+        public long getSum(){
+            return sum.get();
+        }
+        public long getMax(){
+            return max.get();
+        }
+        /*
+         * Upper bound of the bucket holding the given quantile
+         */
+        public long percentile(double q){
+            long total = count.get();
+            if(total == 0){
+                return 0;
+            }
+            long rank = (long)Math.ceil(q * total);
+            long seen = 0;
+            for(int b = 0; b < BUCKETS; b++){
+                seen += buckets.get(b);
+                if(seen >= rank){
+                    return Math.min(upperBound(b), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package fishsamples;
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+
+/*
+ * Local HTTP endpoint over a Metrics registry
+ * GET /metrics returns the scrape format, GET /report the readable report.
+ * Binds to the loopback interface only and serves from one daemon thread.
+ */
+public class MetricsServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MetricsServer(final Metrics metrics, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler(){
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, metrics.scrape());
+            }
+        });
+        server.createContext("/report", new HttpHandler(){
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, metrics.report());
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "MetricsServer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    public void stop(){
+        server.stop(0);
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,79 @@
+package fishsamples;
+import java.util.*;
+
+/*
+ * Who is at each location, kept up to date as people move
+ * Each location holds a plain int list of person ordinals, and each person
+ * remembers their slot in it, so a move is one swap-remove and one append.
+ * Lists keep their capacity, so steady-state turns allocate nothing.
+ * Locations where nobody interacts can be left untracked: they keep a head
+ * count but no list, so the common home and work moves stay cheap.
+ * Order within a list depends on the order of moves, not on person ordinal.
+ */
+public class OccupancyIndex {
+
+    private int[][] members;
+    private int[] counts;
+    private int[] slots;
+
+    public OccupancyIndex(int locations, int population){
+        this(locations, population, null);
+    }
+
+    /*
+     * Only locations flagged in tracked (all if null) keep member lists
+     */
+    public OccupancyIndex(int locations, int population, boolean[] tracked){
+        this.members = new int[locations][];
+        this.counts = new int[locations];
+        this.slots = new int[population];
+        for(int lidx = 0; lidx < locations; lidx++){
+            if(tracked == null || tracked[lidx]){
+                members[lidx] = new int[4];
+            }
+        }
+    }
+
+    /*
+     * Put a person somewhere for the first time
+     */
+    public void place(int pidx, int lidx){
+        int count = counts[lidx];
+        if(members[lidx] == null){
+            counts[lidx] = count + 1;
+            return;
+        }
+        if(count == members[lidx].length){
+            members[lidx] = Arrays.copyOf(members[lidx], count * 2);
+        }
+        members[lidx][count] = pidx;
+        slots[pidx] = count;
+        counts[lidx] = count + 1;
+    }
+
+    public void move(int pidx, int from, int to){
+        if(from == to){
+            return;
+        }
+        int slot = slots[pidx];
+        int last = --counts[from];
+        if(members[from] != null && slot != last){
+            int swapped = members[from][last];
+            members[from][slot] = swapped;
+            slots[swapped] = slot;
+        }
+        place(pidx, to);
+    }
+
+    public int count(int lidx){
+        return counts[lidx];
+    }
+
+    /*
+     * Backing list for a tracked location; only the first count(lidx) entries are valid
+     */
+    public int[] members(int lidx){
+        return members[lidx];
+    }
+
+}
@@ -0,0 +1,97 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * Strains and the schedule they are seeded on
+ * Each source contaminates one location with one strain at a given hour, so
+ * several strains can spread at once and one strain can start in several
+ * places. Strains are numbered in the order they are added; the engine keeps
+ * one bit per strain for every location, hence at most MAX_STRAINS. The
+ * standard outbreak is LakeTown's: one LakeSpore at INFECTION_SOURCE at
+ * INFECTION_TIME.
+ */
+public class Outbreak {
+
+    public static final int MAX_STRAINS = 64;
+
+    private List<Pathogen> strains = new ArrayList<Pathogen>();
+    private List<Source> sources = new ArrayList<Source>();
+
+    /*
+     * The single source from LakeTown's settings at the time of the call
+     */
+    public static Outbreak standard(){
+        Outbreak res = new Outbreak();
+        res.addSource(LakeTown.INFECTION_TIME, LakeTown.INFECTION_SOURCE, res.addStrain(new LakeSpore()));
+        return res;
+    }
+
+    /*
+     * Number of the new strain
+     */
+    public int addStrain(Pathogen pathogen){
+        if(strains.size() == MAX_STRAINS){
+            throw new IllegalArgumentException("No more than " + MAX_STRAINS + " strains");
+        }
+        strains.add(pathogen);
+        return strains.size() - 1;
+    }
+
+    /*
+     * Seed a strain at the named location; sources stay in time order
+     */
+    public void addSource(int time, String location, int strain){
+        if(strain < 0 || strain >= strains.size()){
+            throw new IllegalArgumentException("No strain " + strain);
+        }
+        int at = sources.size();
+        while(at > 0 && sources.get(at - 1).time > time){
+            at--;
+        }
+        sources.add(at, new Source(time, location, strain));
+    }
+
+    public List<Pathogen> getStrains(){
+        return strains;
+    }
+
+    public Pathogen getStrain(int strain){
+        return strains.get(strain);
+    }
+
+    public List<Source> getSources(){
+        return sources;
+    }
+
+    /*
+     * Hour of the last source; the outbreak cannot die out before then
+     */
+    public int getLastTime(){
+        return sources.isEmpty() ? 0 : sources.get(sources.size() - 1).time;
+    }
+
+    /*
+     * One strain put into one location at one hour
+     */
+    public static class Source {
+        private int time;
+        private String location;
+        private int strain;
+        public Source(int time, String location, int strain){
+            this.time = time;
+            this.location = location;
+            this.strain = strain;
+        }
+        public int getTime(){
+            return time;
+        }
+        public String getLocation(){
+            return location;
+        }
+        public int getStrain(){
+            return strain;
+        }
+    }
+
+}
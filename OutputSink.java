@@ -0,0 +1,25 @@
+package fishsamples;
+import fish.*;
+
+/*
+ * Destination for simulation output: SIR and geo snapshots plus case reports
+ */
+public interface OutputSink {
+
+    public void writeCity(City city);
+
+    public void writeLocations(City city);
+
+    /*
+     * Snapshot of a run without fish objects: people per location and
+     * SnapshotCity kind, flat as lidx * SnapshotCity.KINDS + kind, in index order
+     */
+    public void writeSnapshot(int time, int[] counts, boolean[] contaminated);
+
+    public void writeCase(String line);
+
+    public void writeEncodedCase(String line);
+
+    public void close();
+
+}
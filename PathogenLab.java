@@ -4,8 +4,13 @@ import fish.*;
 public class PathogenLab {
     
     static String OUTFILE = "files/lab.txt";
+    static int TRIALS = 100;
 
     public static void main(String args[]){
+        if(args.length >= 1 && args[0].equals("batch")){
+            runBatch((args.length >= 2) ? Integer.parseInt(args[1]) : TRIALS);
+            return;
+        }
         City city = new City("Pathogen City");
         Pathogen pathogen = new LakeSpore();
         Person person = new Person("TEST", AgeGroup.ADULT);
@@ -39,5 +44,80 @@ public class PathogenLab {
         System.out.println("Infection lasted " + totalDays + " days.");
         Helper.closeAllFiles();
     }
+    
+    /*
+     * Build the progression table for every age group in one pass
+     * Writes each course to files/lab_<AGE GROUP>.txt, then infects TRIALS
+     * fresh hosts per group and prints the spread of their courses: min,
+     * mean and max days to latency, to symptoms and to recovery.
+     */
+    public static void runBatch(int trials){
+        Pathogen pathogen = new LakeSpore();
+        double DAY = 24.0;
+        System.out.println("Age Group,Trials,Dose,Latent Min,Latent Mean,Latent Max,Incubation Min,Incubation Mean,Incubation Max,Duration Min,Duration Mean,Duration Max");
+        for(AgeGroup ag : AgeGroup.values()){
+            ProgressionTable table = ProgressionTable.get(pathogen, ag);
+            String file = OUTFILE.replace(".txt", "_" + ag + ".txt");
+            for(int t = 0; t < table.getLength(); t++){
+                StringBuilder out = new StringBuilder();
+                    out.append(t).append(",");
+                    out.append(table.getState(t)).append(",");
+                    out.append(table.getBacteria(t)).append(",");
+                    out.append(table.getResponse(t));
+                Helper.writeFileLine(file, out.toString());
+            }
+            double[][] days = new double[3][trials];
+            for(int k = 0; k < trials; k++){
+                int[] course = runCourse(pathogen, ag);
+                for(int m = 0; m < 3; m++){
+                    days[m][k] = (double)course[m] / DAY;
+                }
+            }
+            String summary = ag + "," + trials + "," + table.getDose();
+            for(int m = 0; m < 3; m++){
+                summary += "," + spread(days[m]);
+            }
+            System.out.println(summary);
+        }
+        Helper.closeAllFiles();
+    }
+
+    /*
+     * Hours to latency, to symptoms and to recovery for one fresh host
+     */
+    private static int[] runCourse(Pathogen pathogen, AgeGroup ag){
+        City city = new City("Pathogen City");
+        Person person = new Person("TEST", ag);
+        person.doInfect(pathogen);
+        int[] res = {-1, -1, 0};
+        int t = 0;
+        while(person.getState() != Person.State.RESISTANT && t < ProgressionTable.MAX_TURNS){
+            person.doTurn(city);
+            if(person.isLatent() && res[0] == -1){
+                res[0] = t;
+            }
+            if(person.isIncubated() && res[1] == -1){
+                res[1] = t;
+            }
+            t++;
+        }
+        res[2] = t;
+        return res;
+    }
+
+    /*
+     * "min,mean,max" of the values
+     */
+    private static String spread(double[] values){
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum = 0.0;
+        for(double v : values){
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+        }
+        return min + "," + (sum / (double)values.length) + "," + max;
+    }
 
-}
\ No newline at end of file
+}
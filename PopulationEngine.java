@@ -0,0 +1,952 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+
+/*
+ * Struct-of-arrays simulation backend
+ * The population lives in primitive columns indexed by person ordinal instead of
+ * Person objects, and routines are compiled to tables: adults follow
+ * AdultRoutine.SCHEDULE, everyone else stays where they are. Bacteria and
+ * immune response are not stored; they are looked up in the ProgressionTable
+ * by hours since infection. A turn only touches everyone on hours where the
+ * schedule changes; otherwise just carriers and quarantined people move, and
+ * an OccupancyIndex follows the moves so crowds never need regrouping.
+ * Output goes through the same sink and case formats as LakeTown.runSimulation.
+ *
+ * All randomness comes from streams keyed by (seed, hour), so a checkpoint
+ * only needs the columns, history and hour to resume exactly where it left off.
+ *
+ * Several strains can spread at once, seeded on the schedule of an Outbreak.
+ * Each person carries at most one, and each location holds a bitset of the
+ * strains on it, so a visit checks contamination with one comparison however
+ * many strains there are.
+ */
+public class PopulationEngine {
+
+    public static final byte ADULT_ROUTINE = 0;
+    public static final byte STAY_ROUTINE = 1;
+    /*
+     * Case reports read the history; turn off for very large cities
+     */
+    public static boolean KEEP_HISTORY = true;
+    public static final int CHECKPOINT_MAGIC = 0x4643504b;
+    public static final int CHECKPOINT_VERSION = 3;
+
+    private static final Person.State[] STATES = Person.State.values();
+    private static final AgeGroup[] AGE_GROUPS = AgeGroup.values();
+    private static final byte SUSCEPTIBLE = (byte)Person.State.SUSCEPTIBLE.ordinal();
+    private static final byte INFECTED = (byte)Person.State.INFECTED.ordinal();
+    private static final byte RESISTANT = (byte)Person.State.RESISTANT.ordinal();
+    private static final int NOT_INFECTED = -1;
+    private static final int RECOVERED = -2;
+    private static final byte QUARANTINED = 1;
+    private static final byte WAS_QUARANTINED = 2;
+    private static final byte SEARCHED = 4;
+
+    private SimContext context;
+    private LocationIndex index;
+    private String name;
+    private Outbreak outbreak;
+    private int[] sourceSites;
+    private ProgressionTable[][] tables;
+    private double[][] infectivity;
+    private int time = 0;
+    private boolean started = false;
+    private boolean quiet = false;
+
+    /*
+     * Person columns
+     */
+    private int size = 0;
+    private byte[] ageGroups;
+    private short[] ages;
+    private byte[] routines;
+    private int[] homes;
+    private int[] works;
+    private int[] locations;
+    private byte[] states;
+    private int[] infectedOn;
+    private byte[] strains;
+    private byte[] quarantine;
+    private short[] quarantineHours;
+    private int[] stateCounts = new int[STATES.length];
+    private int[] spreaders = new int[16];
+    private InteractionPhase.SplitMix rand = new InteractionPhase.SplitMix();
+    private int turnMoved = 0;
+    private int turnExposures = 0;
+    private int turnInfections = 0;
+
+    /*
+     * Location columns
+     */
+    private int[][] lunchRanks;
+    private int[] restaurantOrdinals;
+    private double[] eatFrequency;
+    private long[] contaminated;
+    private boolean[] contaminatedView;
+    private int[] kindCounts;
+
+    /*
+     * People to move every turn: carriers, the quarantined, and the just recovered
+     */
+    private int[] active = new int[16];
+    private int activeCount = 0;
+    private boolean[] isActive;
+    private int carrierCount = 0;
+
+    /*
+     * Who is where, updated on every move and read as ready-made crowds
+     */
+    private OccupancyIndex occupancy;
+
+    private boolean intervene = false;
+    private int[] targets = new int[0];
+    private ContactIndex contacts = null;
+    private HistoryStore history = null;
+    private CaseLog cases = null;
+
+    public PopulationEngine(SimContext context, String name, int capacity){
+        this(context, name, capacity, LakeTown.getOutbreak());
+    }
+
+    PopulationEngine(SimContext context, String name, int capacity, Outbreak outbreak){
+        this.context = context;
+        this.index = context.getIndex();
+        this.name = name;
+        this.ageGroups = new byte[capacity];
+        this.ages = new short[capacity];
+        this.routines = new byte[capacity];
+        this.homes = new int[capacity];
+        this.works = new int[capacity];
+        this.locations = new int[capacity];
+        this.states = new byte[capacity];
+        this.infectedOn = new int[capacity];
+        this.strains = new byte[capacity];
+        this.quarantine = new byte[capacity];
+        this.quarantineHours = new short[capacity];
+        this.isActive = new boolean[capacity];
+        int n = index.size();
+        this.lunchRanks = new int[n][];
+        this.restaurantOrdinals = new int[index.getRestaurants().size()];
+        this.eatFrequency = new double[n];
+        this.contaminated = new long[n];
+        this.contaminatedView = new boolean[n];
+        this.kindCounts = new int[n * SnapshotCity.KINDS];
+        for(int lidx = 0; lidx < n; lidx++){
+            lunchRanks[lidx] = index.getNearestRestaurants(lidx);
+        }
+        for(int slot = 0; slot < restaurantOrdinals.length; slot++){
+            Location site = index.getRestaurants().get(slot);
+            int lidx = index.getOrdinal(site);
+            restaurantOrdinals[slot] = lidx;
+            eatFrequency[lidx] = ((LakeTown.Restaurant)site).getFrequencyEatContaminatedItem();
+        }
+        boolean[] interacts = new boolean[n];
+        for(int lidx : restaurantOrdinals){
+            interacts[lidx] = true;
+        }
+        this.occupancy = new OccupancyIndex(n, capacity, interacts);
+        setOutbreak(outbreak);
+    }
+
+    /*
+     * Engine over a city built the usual way; people must be fresh and
+     * follow AdultRoutine (adults) or ChildRoutine (children)
+     */
+    public static PopulationEngine fromCity(SimContext context, City city, boolean intervene, List<String> targetLocations){
+        return fromCity(context, city, intervene, targetLocations, LakeTown.getOutbreak());
+    }
+
+    static PopulationEngine fromCity(SimContext context, City city, boolean intervene, List<String> targetLocations, Outbreak outbreak){
+        List<Person> people = city.getPeople();
+        PopulationEngine engine = new PopulationEngine(context, city.getName(), people.size(), outbreak);
+        LocationIndex index = context.getIndex();
+        for(Person p : people){
+            if(p.getRoutine() instanceof LakeTown.AdultRoutine){
+                LakeTown.AdultRoutine routine = (LakeTown.AdultRoutine)p.getRoutine();
+                engine.addPerson(AgeGroup.ADULT, p.getAge(), ADULT_ROUTINE, index.getOrdinal(routine.getHome()), index.getOrdinal(routine.getWorkplace()));
+            }
+            else{
+                Location home = p.getNamedLocation("Home");
+                if(home == null){
+                    home = p.getLocation();
+                }
+                engine.addPerson(AgeGroup.CHILD, p.getAge(), STAY_ROUTINE, index.getOrdinal(home), -1);
+            }
+        }
+        engine.prepare(intervene, targetLocations);
+        return engine;
+    }
+
+    /*
+     * Move families into every home of the index without keeping Person objects;
+     * workplaces are drawn from the context exactly as LakeTown.populateCity does,
+     * and each age is read off the Person it would have created, which is then
+     * dropped, so ages follow fish and Helper's stream as on the object path
+     */
+    public static PopulationEngine populate(SimContext context, String name, LocationIndex index, int[] familySizes, int[] adultCounts, boolean intervene, List<String> targetLocations){
+        index.build();
+        context.setIndex(index);
+        List<Location> homes = index.getHomes();
+        int population = 0;
+        for(int hidx = 0; hidx < homes.size(); hidx++){
+            population += (familySizes == null) ? LakeTown.FAMILY_SIZE : familySizes[hidx];
+        }
+        PopulationEngine engine = new PopulationEngine(context, name, population);
+        List<Location> workplaces = index.getWorkplaces();
+        List<Location> groceries = index.getGroceries();
+        for(int hidx = 0; hidx < homes.size(); hidx++){
+            Location home = homes.get(hidx);
+            int familySize = (familySizes == null) ? LakeTown.FAMILY_SIZE : familySizes[hidx];
+            int adults = (adultCounts == null) ? LakeTown.ADULTS_PER_FAMILY : adultCounts[hidx];
+            for(int f = 0; f < familySize; f++){
+                AgeGroup ag = (f < adults) ? AgeGroup.ADULT : AgeGroup.CHILD;
+                int work = -1;
+                if(f < adults){
+                    work = index.getOrdinal(workplaces.get(context.nextInt(workplaces.size())));
+                    context.nextInt(groceries.size());
+                }
+                int age = new Person("LT" + engine.size(), ag, null, home).getAge();
+                if(f < adults){
+                    engine.addPerson(ag, age, ADULT_ROUTINE, index.getOrdinal(home), work);
+                }
+                else{
+                    engine.addPerson(ag, age, STAY_ROUTINE, index.getOrdinal(home), -1);
+                }
+            }
+        }
+        engine.prepare(intervene, targetLocations);
+        return engine;
+    }
+
+    public int addPerson(AgeGroup ageGroup, int age, byte routine, int home, int work){
+        int pidx = size++;
+        ageGroups[pidx] = (byte)ageGroup.ordinal();
+        ages[pidx] = (short)age;
+        routines[pidx] = routine;
+        homes[pidx] = home;
+        works[pidx] = work;
+        locations[pidx] = home;
+        occupancy.place(pidx, home);
+        states[pidx] = SUSCEPTIBLE;
+        infectedOn[pidx] = NOT_INFECTED;
+        stateCounts[SUSCEPTIBLE]++;
+        return pidx;
+    }
+
+    /*
+     * Set up tracing and history once everyone has been added
+     */
+    private void prepare(boolean intervene, List<String> targetLocations){
+        if(KEEP_HISTORY){
+            history = new HistoryStore(index, size);
+            cases = new CaseLog(history, index, size);
+        }
+        setIntervention(intervene, targetLocations);
+    }
+
+    /*
+     * Quarantine plan for this run; past hour 0 the contact index is rebuilt
+     * from the history, which is how forks of a checkpoint pick their targets
+     */
+    private void setIntervention(boolean intervene, List<String> targetLocations){
+        this.intervene = intervene;
+        List<Location> targetSites = ContactIndex.findTargets(index, targetLocations);
+        targets = new int[targetSites.size()];
+        for(int t = 0; t < targets.length; t++){
+            targets[t] = index.getOrdinal(targetSites.get(t));
+        }
+        contacts = null;
+        if(intervene){
+            contacts = new ContactIndex(index, size, targetSites);
+            if(time == 0){
+                for(int pidx = 0; pidx < size; pidx++){
+                    contacts.visit(pidx, locations[pidx]);
+                }
+            }
+            else if(history != null){
+                contacts.replay(history);
+            }
+            else{
+                throw new RuntimeException("Cannot trace contacts from hour " + time + " without the history");
+            }
+        }
+    }
+
+    /*
+     * One strain seeded at LakeTown's INFECTION_SOURCE and INFECTION_TIME
+     */
+    public void setPathogen(Pathogen pathogen){
+        Outbreak plan = new Outbreak();
+        plan.addSource(LakeTown.INFECTION_TIME, LakeTown.INFECTION_SOURCE, plan.addStrain(pathogen));
+        setOutbreak(plan);
+    }
+
+    /*
+     * Strains and sources for this run, with a table per strain and age group;
+     * the strains must first pass EngineCheck
+     */
+    public void setOutbreak(Outbreak outbreak){
+        EngineCheck.require(outbreak, context.getSeed());
+        List<Pathogen> pathogens = outbreak.getStrains();
+        this.outbreak = outbreak;
+        this.tables = new ProgressionTable[pathogens.size()][AGE_GROUPS.length];
+        this.infectivity = new double[pathogens.size()][AGE_GROUPS.length];
+        for(int strain = 0; strain < pathogens.size(); strain++){
+            for(AgeGroup ag : AGE_GROUPS){
+                tables[strain][ag.ordinal()] = ProgressionTable.get(pathogens.get(strain), ag);
+                infectivity[strain][ag.ordinal()] = pathogens.get(strain).getInfectivity(ag);
+            }
+        }
+        List<Outbreak.Source> sources = outbreak.getSources();
+        this.sourceSites = new int[sources.size()];
+        for(int k = 0; k < sources.size(); k++){
+            Location site = Location.getLocationByName(index.getLocations(), sources.get(k).getLocation());
+            if(site == null){
+                throw new RuntimeException("No infection source named " + sources.get(k).getLocation());
+            }
+            sourceSites[k] = index.getOrdinal(site);
+        }
+    }
+
+    public void printOverview(){
+        System.out.println("City Overview: " + name);
+        System.out.println("Total Locations: " + index.size());
+        System.out.println("Total Population: " + size);
+        int[] byAge = new int[AGE_GROUPS.length];
+        for(int pidx = 0; pidx < size; pidx++){
+            byAge[ageGroups[pidx]]++;
+        }
+        for(AgeGroup ag : AGE_GROUPS){
+            if(byAge[ag.ordinal()] > 0){
+                System.out.println(ag + ": " + byAge[ag.ordinal()]);
+            }
+        }
+    }
+
+    /*
+     * Run outbreak to completion, as LakeTown.runSimulation does
+     */
+    public void run(){
+        runUntil(Integer.MAX_VALUE);
+    }
+
+    /*
+     * Run until the given hour or the end of the outbreak, whichever is first;
+     * false once the outbreak is over
+     */
+    public boolean runUntil(int stopTime){
+        if(!started){
+            writeSnapshot();
+            started = true;
+        }
+        boolean outbreak = true;
+        while(outbreak && time < stopTime){
+            outbreak = step();
+        }
+        return outbreak;
+    }
+
+    /*
+     * Keep progress lines off the console, e.g. for many forks at once
+     */
+    public void setQuiet(boolean quiet){
+        this.quiet = quiet;
+    }
+
+    private void log(String line){
+        if(!quiet){
+            System.out.println(line);
+        }
+    }
+
+    /*
+     * One hour of the outbreak with its scheduled events; false once it is over
+     */
+    public boolean step(){
+        boolean outbreak = true;
+        if(time % 600 == 0){
+            log("Simulation Day: " + (time / 24));
+        }
+        List<Outbreak.Source> sources = this.outbreak.getSources();
+        for(int k = 0; k < sources.size() && sources.get(k).getTime() <= time; k++){
+            if(sources.get(k).getTime() == time){
+                contaminated[sourceSites[k]] |= 1L << sources.get(k).getStrain();
+                log("Infected started at: " + index.getLocation(sourceSites[k]));
+            }
+        }
+        if(intervene && time == LakeTown.INTERVENTION_TIME){
+            for(int target : targets){
+                String disRes = (contaminated[target] != 0) ? "Successfully" : "Unsuccessfully";
+                contaminated[target] = 0;
+                log(disRes + " disinfected " + index.getLocation(target));
+            }
+        }
+        TickMetrics tick = context.getTickMetrics();
+        if(tick != null){
+            tick.beginTick();
+        }
+        doTurn();
+        if(!LakeTown.SIM_BY_DAY || time % 24 == 0){
+            writeSnapshot();
+        }
+        if(tick != null){
+            tick.endPhase(TickMetrics.OUTPUT);
+            tick.addMoved(turnMoved);
+            tick.addExposures(turnExposures, turnInfections);
+            tick.setStateCounts(stateCounts);
+            tick.endTick(time);
+        }
+        if(time <= this.outbreak.getLastTime()){
+            outbreak = true;
+        }
+        else if(carrierCount == 0){
+            outbreak = false;
+            log("Pathogen died out.");
+        }
+        else if(time > LakeTown.MAX_TURNS){
+            outbreak = false;
+            log("Ran out of turns.");
+        }
+        return outbreak;
+    }
+
+    /*
+     * Save the whole run at the current hour
+     */
+    public void checkpoint(String file) throws IOException {
+        SnapshotFile out = SnapshotFile.create(file);
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeInt(CHECKPOINT_VERSION);
+        out.writeLong(context.getSeed());
+        out.writeInt(time);
+        out.writeString(settingsKey());
+        out.writeInt(size);
+        out.writeInt(index.size());
+        out.writeInt(locationsHash(index));
+        out.writeString(strainKeys());
+        out.writeString(name);
+        out.writeBytes(ageGroups, size);
+        out.writeShorts(ages, size);
+        out.writeBytes(routines, size);
+        out.writeInts(homes, size);
+        out.writeInts(works, size);
+        out.writeInts(locations, size);
+        out.writeBytes(states, size);
+        out.writeInts(infectedOn, size);
+        out.writeBytes(strains, size);
+        out.writeBytes(quarantine, size);
+        out.writeShorts(quarantineHours, size);
+        out.writeInts(stateCounts, stateCounts.length);
+        for(int lidx = 0; lidx < contaminated.length; lidx++){
+            out.writeLong(contaminated[lidx]);
+        }
+        out.writeInt(activeCount);
+        out.writeInts(active, activeCount);
+        out.writeInt(carrierCount);
+        out.writeInt(context.getTotalAffected());
+        out.writeInt(context.getQuarantinedHours());
+        for(int lidx : restaurantOrdinals){
+            out.writeInt(occupancy.count(lidx));
+            out.writeInts(occupancy.members(lidx), occupancy.count(lidx));
+        }
+        out.writeInt(history == null ? 0 : 1);
+        if(history != null){
+            history.write(out);
+        }
+        out.close();
+    }
+
+    /*
+     * Resume a checkpoint in a context with the same seed and locations,
+     * optionally as an intervention variant of the saved run
+     */
+    public static PopulationEngine restore(SimContext context, String file, boolean intervene, List<String> targetLocations) throws IOException {
+        LocationIndex index = context.getIndex();
+        SnapshotFile in = SnapshotFile.open(file);
+        if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION){
+            throw new RuntimeException(file + " is not a checkpoint of this version");
+        }
+        long seed = in.readLong();
+        int time = in.readInt();
+        String settings = in.readString();
+        int size = in.readInt();
+        if(seed != context.getSeed() || in.readInt() != index.size() || in.readInt() != locationsHash(index)){
+            throw new RuntimeException(file + " was saved from a different seed or city");
+        }
+        String strainKeys = in.readString();
+        PopulationEngine engine = new PopulationEngine(context, in.readString(), size);
+        if(!strainKeys.equals(engine.strainKeys())){
+            throw new RuntimeException(file + " was saved with strains " + strainKeys);
+        }
+        if(!settings.equals(engine.settingsKey())){
+            throw new RuntimeException(file + " was saved under other settings: " + settings);
+        }
+        if(intervene && time > LakeTown.INTERVENTION_TIME){
+            throw new RuntimeException(file + " was saved at hour " + time + ", after the intervention at " + LakeTown.INTERVENTION_TIME);
+        }
+        engine.time = time;
+        engine.started = true;
+        engine.size = size;
+        in.readBytes(engine.ageGroups, size);
+        in.readShorts(engine.ages, size);
+        in.readBytes(engine.routines, size);
+        in.readInts(engine.homes, size);
+        in.readInts(engine.works, size);
+        in.readInts(engine.locations, size);
+        in.readBytes(engine.states, size);
+        in.readInts(engine.infectedOn, size);
+        in.readBytes(engine.strains, size);
+        in.readBytes(engine.quarantine, size);
+        in.readShorts(engine.quarantineHours, size);
+        in.readInts(engine.stateCounts, engine.stateCounts.length);
+        for(int lidx = 0; lidx < engine.contaminated.length; lidx++){
+            engine.contaminated[lidx] = in.readLong();
+        }
+        engine.activeCount = in.readInt();
+        engine.active = new int[Math.max(16, engine.activeCount)];
+        in.readInts(engine.active, engine.activeCount);
+        for(int k = 0; k < engine.activeCount; k++){
+            engine.isActive[engine.active[k]] = true;
+        }
+        engine.carrierCount = in.readInt();
+        int affected = in.readInt();
+        context.setTallies(affected, in.readInt());
+        boolean[] placed = new boolean[size];
+        for(int lidx : engine.restaurantOrdinals){
+            int[] crowd = new int[in.readInt()];
+            in.readInts(crowd, crowd.length);
+            for(int pidx : crowd){
+                engine.occupancy.place(pidx, lidx);
+                placed[pidx] = true;
+            }
+        }
+        for(int pidx = 0; pidx < size; pidx++){
+            if(!placed[pidx]){
+                engine.occupancy.place(pidx, engine.locations[pidx]);
+            }
+        }
+        if(in.readInt() != 0){
+            engine.history = HistoryStore.read(in, index);
+            engine.cases = new CaseLog(engine.history, index, size);
+            engine.cases.replay();
+        }
+        in.close();
+        engine.setIntervention(intervene, targetLocations);
+        return engine;
+    }
+
+    /*
+     * Whether a checkpoint was saved at the given hour under the current
+     * settings, so it can stand in for running up to that hour
+     */
+    public static boolean isCurrent(String file, SimContext context, int time) throws IOException {
+        SnapshotFile in = SnapshotFile.open(file);
+        try{
+            if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION){
+                return false;
+            }
+            return in.readLong() == context.getSeed() && in.readInt() == time && in.readString().equals(settingsKey(LakeTown.getOutbreak()));
+        }
+        finally{
+            in.close();
+        }
+    }
+
+    /*
+     * Settings that shape the run before any intervention, besides the seed
+     * and locations checked on their own
+     */
+    private String settingsKey(){
+        return settingsKey(outbreak);
+    }
+
+    private static String settingsKey(Outbreak outbreak){
+        StringBuilder res = new StringBuilder();
+        res.append("intervention=").append(LakeTown.INTERVENTION_TIME);
+        res.append(";family=").append(LakeTown.FAMILY_SIZE).append("/").append(LakeTown.ADULTS_PER_FAMILY);
+        res.append(";hours=").append(LakeTown.AdultRoutine.WORK_START).append("/").append(LakeTown.AdultRoutine.LUNCH_HOUR).append("/").append(LakeTown.AdultRoutine.WORK_END);
+        res.append(";eat=").append(LakeTown.Restaurant.EAT_CONTAMINATED);
+        res.append(";strains=").append(strainKeys(outbreak));
+        res.append(";sources=");
+        for(Outbreak.Source source : outbreak.getSources()){
+            res.append(source.getTime()).append("@").append(source.getLocation()).append("#").append(source.getStrain()).append(",");
+        }
+        return res.toString();
+    }
+
+    /*
+     * Table keys of every strain, in order; a checkpoint only resumes under the same
+     */
+    private String strainKeys(){
+        return strainKeys(outbreak);
+    }
+
+    private static String strainKeys(Outbreak outbreak){
+        StringBuilder res = new StringBuilder();
+        for(Pathogen pathogen : outbreak.getStrains()){
+            if(res.length() > 0){
+                res.append(";");
+            }
+            res.append(ProgressionTable.keyOf(pathogen));
+        }
+        return res.toString();
+    }
+
+    private static int locationsHash(LocationIndex index){
+        int res = 1;
+        for(Location loc : index.getLocations()){
+            res = 31 * res + loc.getName().hashCode();
+        }
+        return res;
+    }
+
+    /*
+     * One hour: move, progress infections, then restaurant interactions
+     */
+    public void doTurn(){
+        int t = time;
+        int hour = t % 24;
+        boolean measure = intervene && isMeasureDay(t / 24);
+        boolean full = (t == 0) || LakeTown.AdultRoutine.changesAt(hour)
+            || (intervene && measure != isMeasureDay((t - 1) / 24));
+        TickMetrics tick = context.getTickMetrics();
+        turnMoved = 0;
+        turnExposures = 0;
+        turnInfections = 0;
+        InteractionPhase.SplitMix moves = rand.reset(InteractionPhase.mix(InteractionPhase.mix(context.getSeed() + t) - 1));
+        if(full){
+            for(int pidx = 0; pidx < size; pidx++){
+                route(pidx, t, hour, measure, moves);
+            }
+        }
+        else{
+            int routed = activeCount;
+            for(int k = 0; k < routed; k++){
+                route(active[k], t, hour, measure, moves);
+            }
+        }
+        if(tick != null){
+            tick.endPhase(TickMetrics.ROUTING);
+        }
+        int kept = 0;
+        for(int k = 0; k < activeCount; k++){
+            int pidx = active[k];
+            progress(pidx, t);
+            if(history != null && !full){
+                history.append(pidx, t, locations[pidx], states[pidx]);
+            }
+            if(infectedOn[pidx] != NOT_INFECTED || (quarantine[pidx] & QUARANTINED) != 0){
+                active[kept++] = pidx;
+            }
+            else{
+                isActive[pidx] = false;
+            }
+        }
+        activeCount = kept;
+        if(history != null){
+            if(full){
+                for(int pidx = 0; pidx < size; pidx++){
+                    history.append(pidx, t, locations[pidx], states[pidx]);
+                }
+            }
+            history.stamp(t);
+        }
+        if(tick != null){
+            tick.endPhase(TickMetrics.PROGRESSION);
+        }
+        interact(t);
+        if(tick != null){
+            tick.endPhase(TickMetrics.INTERACTIONS);
+        }
+        time++;
+    }
+
+    private static boolean isMeasureDay(int day){
+        return day >= LakeTown.INTERVENTION_DAY && day < LakeTown.INTERVENTION_DAY + LakeTown.QuarantineMeasure.WINDOW_DAYS;
+    }
+
+    private void route(int pidx, int t, int hour, boolean measure, InteractionPhase.SplitMix rand){
+        int next = locations[pidx];
+        if(routines[pidx] == ADULT_ROUTINE){
+            byte where = LakeTown.AdultRoutine.SCHEDULE[hour];
+            if(where == LakeTown.AdultRoutine.HOME){
+                next = homes[pidx];
+            }
+            else if(where == LakeTown.AdultRoutine.LUNCH){
+                int[] ranked = lunchRanks[locations[pidx]];
+                next = ranked[LakeTown.AdultRoutine.pickLunch(gaussian(rand), ranked.length)];
+            }
+            else{
+                next = works[pidx];
+            }
+            if(states[pidx] == INFECTED){
+                next = homes[pidx];
+            }
+        }
+        if(measure){
+            next = applyQuarantine(pidx, next);
+        }
+        else if((quarantine[pidx] & QUARANTINED) != 0){
+            quarantine[pidx] &= ~QUARANTINED;
+        }
+        int prev = locations[pidx];
+        if(next != prev){
+            turnMoved++;
+            occupancy.move(pidx, prev, next);
+            locations[pidx] = next;
+            if(contacts != null){
+                contacts.visit(pidx, next);
+            }
+        }
+    }
+
+    /*
+     * LakeTown.QuarantineMeasure over the columns
+     */
+    private int applyQuarantine(int pidx, int next){
+        byte q = quarantine[pidx];
+        int res = next;
+        if((q & QUARANTINED) != 0){
+            res = homes[pidx];
+            if(quarantineHours[pidx] > LakeTown.QuarantineMeasure.QUARANTINE_HOURS){
+                res = next;
+                q &= ~QUARANTINED;
+            }
+            else{
+                context.addQuarantinedHour();
+            }
+            quarantineHours[pidx]++;
+        }
+        else if((q & WAS_QUARANTINED) == 0 && states[pidx] == SUSCEPTIBLE){
+            for(int target : targets){
+                if(next == target){
+                    q |= QUARANTINED | WAS_QUARANTINED;
+                    break;
+                }
+            }
+            if((q & QUARANTINED) == 0 && (q & SEARCHED) == 0){
+                q |= SEARCHED;
+                for(int target : targets){
+                    if(contacts.hasVisited(pidx, target)){
+                        q |= QUARANTINED | WAS_QUARANTINED;
+                        break;
+                    }
+                }
+            }
+            if((q & QUARANTINED) != 0){
+                context.addAffected();
+                activate(pidx);
+            }
+        }
+        quarantine[pidx] = q;
+        return res;
+    }
+
+    /*
+     * Step an infection one hour along its table; recovery clears the pathogen
+     * but keeps the person active for one more move
+     */
+    private void progress(int pidx, int t){
+        if(infectedOn[pidx] == RECOVERED){
+            infectedOn[pidx] = NOT_INFECTED;
+            return;
+        }
+        if(infectedOn[pidx] < 0){
+            return;
+        }
+        byte next = (byte)tables[strains[pidx]][ageGroups[pidx]].getState(t - infectedOn[pidx]).ordinal();
+        if(next != states[pidx]){
+            stateCounts[states[pidx]]--;
+            stateCounts[next]++;
+            states[pidx] = next;
+        }
+        if(next == RESISTANT){
+            infectedOn[pidx] = RECOVERED;
+            carrierCount--;
+        }
+    }
+
+    private boolean isContagious(int pidx, int t){
+        return infectedOn[pidx] >= 0 && tables[strains[pidx]][ageGroups[pidx]].isContagious(t - infectedOn[pidx]);
+    }
+
+    private void activate(int pidx){
+        if(isActive[pidx]){
+            return;
+        }
+        isActive[pidx] = true;
+        if(activeCount == active.length){
+            active = Arrays.copyOf(active, activeCount * 2);
+        }
+        active[activeCount++] = pidx;
+    }
+
+    /*
+     * LakeTown.Restaurant.collectExposures for every occupied restaurant that
+     * is contaminated or holds someone contagious; spreaders pass on their own
+     * strain, and food goes round once per strain on the premises
+     */
+    private void interact(int t){
+        long turnSeed = InteractionPhase.mix(context.getSeed() + t);
+        for(int slot = 0; slot < restaurantOrdinals.length; slot++){
+            int lidx = restaurantOrdinals[slot];
+            int n = occupancy.count(lidx);
+            if(n == 0){
+                continue;
+            }
+            int[] crowd = occupancy.members(lidx);
+            int spreading = 0;
+            if(carrierCount > 0){
+                if(spreaders.length < n){
+                    spreaders = new int[Math.max(n, 2 * spreaders.length)];
+                }
+                for(int k = 0; k < n; k++){
+                    if(isContagious(crowd[k], t)){
+                        spreaders[spreading++] = crowd[k];
+                    }
+                }
+            }
+            long onSite = contaminated[lidx];
+            if(spreading == 0 && onSite == 0){
+                continue;
+            }
+            rand.reset(InteractionPhase.mix(turnSeed + lidx));
+            for(int s = 0; s < spreading; s++){
+                int strain = strains[spreaders[s]];
+                for(int pick = 0; pick < 2; pick++){
+                    expose(crowd[rand.nextInt(n)], t, rand, strain);
+                }
+            }
+            int eatContaminatedFood = (int)(eatFrequency[lidx] * (double)n);
+            while(onSite != 0){
+                int strain = Long.numberOfTrailingZeros(onSite);
+                onSite &= onSite - 1;
+                for(int c = 0; c < eatContaminatedFood; c++){
+                    expose(crowd[rand.nextInt(n)], t, rand, strain);
+                }
+            }
+        }
+    }
+
+    private void expose(int pidx, int t, InteractionPhase.SplitMix rand, int strain){
+        turnExposures++;
+        if(states[pidx] != SUSCEPTIBLE || infectedOn[pidx] != NOT_INFECTED){
+            return;
+        }
+        if(rand.nextDouble() < infectivity[strain][ageGroups[pidx]]){
+            infectedOn[pidx] = t + 1;
+            strains[pidx] = (byte)strain;
+            turnInfections++;
+            carrierCount++;
+            activate(pidx);
+        }
+    }
+
+    /*
+     * |N(0,1)| draws only, so the cosine half of Box-Muller is enough
+     */
+    private static double gaussian(InteractionPhase.SplitMix rand){
+        double radius = Math.sqrt(-2.0 * Math.log(1.0 - rand.nextDouble()));
+        return radius * Math.cos(2.0 * Math.PI * rand.nextDouble());
+    }
+
+    /*
+     * Everyone counted by location and SnapshotCity kind, for Helper's lines
+     */
+    private void writeSnapshot(){
+        Arrays.fill(kindCounts, 0);
+        for(int pidx = 0; pidx < size; pidx++){
+            int kind;
+            if(states[pidx] == INFECTED){
+                kind = SnapshotCity.INFECTED;
+            }
+            else if(states[pidx] == RESISTANT){
+                kind = SnapshotCity.RESISTANT;
+            }
+            else{
+                kind = (infectedOn[pidx] >= 0) ? SnapshotCity.CARRYING : SnapshotCity.CLEAN;
+            }
+            kindCounts[locations[pidx] * SnapshotCity.KINDS + kind]++;
+        }
+        for(int lidx = 0; lidx < contaminated.length; lidx++){
+            contaminatedView[lidx] = (contaminated[lidx] != 0);
+        }
+        context.getSink().writeSnapshot(time, kindCounts, contaminatedView);
+    }
+
+    /*
+     * Gather and report all infected cases, as LakeTown.findAllCases does
+     */
+    public void findAllCases(){
+        if(history == null){
+            System.out.println(stateCounts[RESISTANT] + " people were infected.");
+            printStrainCounts();
+            return;
+        }
+        int c = 0;
+        for(int pidx = 0; pidx < size; pidx++){
+            if(states[pidx] != RESISTANT){
+                continue;
+            }
+            Location home = index.getLocation(homes[pidx]);
+            Location work = null;
+            if(routines[pidx] == ADULT_ROUTINE){
+                work = index.getLocation(works[pidx]);
+            }
+            else{
+                home = index.getLocation(locations[pidx]);
+            }
+            context.getSink().writeCase(cases.describe(c, ages[pidx], home, work, pidx));
+            Location encHome = (work == null) ? null : home;
+            context.getSink().writeEncodedCase(cases.encode(c, ages[pidx], encHome, work, pidx));
+            c++;
+        }
+        System.out.println(c + " people were infected.");
+        printStrainCounts();
+    }
+
+    /*
+     * Recovered people by the strain they had, when there was more than one
+     */
+    private void printStrainCounts(){
+        List<Pathogen> pathogens = outbreak.getStrains();
+        if(pathogens.size() < 2){
+            return;
+        }
+        int[] counts = new int[pathogens.size()];
+        for(int pidx = 0; pidx < size; pidx++){
+            if(states[pidx] == RESISTANT){
+                counts[strains[pidx]]++;
+            }
+        }
+        for(int strain = 0; strain < counts.length; strain++){
+            System.out.println(pathogens.get(strain).getName() + ": " + counts[strain] + " people were infected.");
+        }
+    }
+
+    public int getTime(){
+        return time;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int[] getStateCounts(){
+        return stateCounts;
+    }
+
+    public Person.State getState(int pidx){
+        return STATES[states[pidx]];
+    }
+
+    /*
+     * Ordinal in the LocationIndex of where the person is now
+     */
+    public int getLocation(int pidx){
+        return locations[pidx];
+    }
+
+}
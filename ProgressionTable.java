@@ -0,0 +1,181 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Memoised within-host course of an infection
+ * Progression depends on the pathogen, the host's age group and the dose
+ * doInfect gave the host. fish picks the dose, so a lookup infects a fresh
+ * host and keys on the bacteria it received; each (pathogen, age group, dose)
+ * trajectory is simulated once, the way PathogenLab does, from that host, and
+ * afterwards every hour is a table lookup.
+ */
+public class ProgressionTable {
+
+    public static int MAX_TURNS = 1000;
+
+    private static final int LATENT = 1;
+    private static final int INCUBATED = 2;
+    private static final int CONTAGIOUS = 4;
+    private static final Person.State[] STATES = Person.State.values();
+    private static ConcurrentHashMap<String, ProgressionTable> cache = new ConcurrentHashMap<String, ProgressionTable>();
+
+    private String pathogenName;
+    private AgeGroup ageGroup;
+    private int dose;
+    private int length;
+    private byte[] states;
+    private byte[] flags;
+    private int[] bacteria;
+    private double[] response;
+    private int latentOn = -1;
+    private int incubatedOn = -1;
+
+    /*
+     * Shared table for this pathogen, age group and the dose a fresh host
+     * receives, built on first use
+     */
+    public static ProgressionTable get(Pathogen pathogen, AgeGroup ageGroup){
+        Person host = new Person("TEST", ageGroup);
+        host.doInfect(pathogen);
+        String key = keyOf(pathogen) + "/" + ageGroup + "/" + host.getBacteria();
+        ProgressionTable table = cache.get(key);
+        if(table == null){
+            table = new ProgressionTable(pathogen, ageGroup, host);
+            ProgressionTable raced = cache.putIfAbsent(key, table);
+            if(raced != null){
+                table = raced;
+            }
+        }
+        return table;
+    }
+
+    /*
+     * Name of the pathogen, plus its settings where they can change between runs
+     */
+    public static String keyOf(Pathogen pathogen){
+        return (pathogen instanceof LakeSpore) ? pathogen.toString() : pathogen.getName();
+    }
+
+    private ProgressionTable(Pathogen pathogen, AgeGroup ageGroup, Person person){
+        this.pathogenName = pathogen.getName();
+        this.ageGroup = ageGroup;
+        this.dose = person.getBacteria();
+        City city = new City("Pathogen City");
+        List<Person> host = Collections.singletonList(person);
+        states = new byte[64];
+        flags = new byte[64];
+        bacteria = new int[64];
+        response = new double[64];
+        int t = 0;
+        while(person.getState() != Person.State.RESISTANT && t < MAX_TURNS){
+            person.doTurn(city);
+            if(t == states.length){
+                states = Arrays.copyOf(states, t * 2);
+                flags = Arrays.copyOf(flags, t * 2);
+                bacteria = Arrays.copyOf(bacteria, t * 2);
+                response = Arrays.copyOf(response, t * 2);
+            }
+            states[t] = (byte)person.getState().ordinal();
+            bacteria[t] = person.getBacteria();
+            response[t] = person.getResponse();
+            if(person.isLatent()){
+                flags[t] |= LATENT;
+                if(latentOn == -1){
+                    latentOn = t;
+                }
+            }
+            if(!Person.getContagious(host).isEmpty()){
+                flags[t] |= CONTAGIOUS;
+            }
+            if(person.isIncubated()){
+                flags[t] |= INCUBATED;
+                if(incubatedOn == -1){
+                    incubatedOn = t;
+                }
+            }
+            t++;
+        }
+        length = t;
+    }
+
+    /*
+     * Hours from infection until the host is resistant (or MAX_TURNS)
+     */
+    public int getLength(){
+        return length;
+    }
+
+    public int getLatentOn(){
+        return latentOn;
+    }
+
+    public int getIncubatedOn(){
+        return incubatedOn;
+    }
+
+    /*
+     * State after the given number of hours infected; past the end the host is resistant
+     */
+    public Person.State getState(int hour){
+        if(hour >= length){
+            return Person.State.RESISTANT;
+        }
+        return STATES[states[hour]];
+    }
+
+    /*
+     * First hour spent in the given state, or -1 if the course never reaches it
+     */
+    public int getFirstHour(Person.State state){
+        for(int hour = 0; hour < length; hour++){
+            if(states[hour] == state.ordinal()){
+                return hour;
+            }
+        }
+        return (state == Person.State.RESISTANT) ? length : -1;
+    }
+
+    public int getBacteria(int hour){
+        return (hour >= length) ? 0 : bacteria[hour];
+    }
+
+    public double getResponse(int hour){
+        if(hour >= length){
+            return (length == 0) ? 0.0 : response[length - 1];
+        }
+        return response[hour];
+    }
+
+    public boolean isLatent(int hour){
+        return hour >= 0 && hour < length && (flags[hour] & LATENT) != 0;
+    }
+
+    /*
+     * Whether Person.getContagious would count the host at this hour
+     */
+    public boolean isContagious(int hour){
+        return hour >= 0 && hour < length && (flags[hour] & CONTAGIOUS) != 0;
+    }
+
+    public boolean isIncubated(int hour){
+        return hour >= 0 && hour < length && (flags[hour] & INCUBATED) != 0;
+    }
+
+    public String getPathogenName(){
+        return pathogenName;
+    }
+
+    public AgeGroup getAgeGroup(){
+        return ageGroup;
+    }
+
+    /*
+     * Bacteria the host held right after doInfect
+     */
+    public int getDose(){
+        return dose;
+    }
+
+}
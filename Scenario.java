@@ -0,0 +1,459 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/*
+ * One experiment read from a properties file
+ * A scenario names every setting LakeTown otherwise takes from its static
+ * fields; keys left out keep the values those fields had when the first
+ * scenario was loaded, so scenarios never inherit from each other. Files are
+ * checked in full on load (unknown keys, types and ranges, and location names
+ * against the town) and cached until they change, and apply() sets the
+ * statics just before a run.
+ *
+ *   name=baseline                   output.tag defaults to this
+ *   seeds=1-20                      or a single seed
+ *   city.population=0               0 loads city.coords
+ *   city.coords=files/coords.txt
+ *   city.familySize=4
+ *   city.adultsPerFamily=2
+ *   infection.source=Restaurant 2 (R)
+ *   infection.time=11
+ *   intervention.quarantine=true
+ *   intervention.targets=2,5        restaurant numbers
+ *   intervention.day=15
+ *   quarantine.windowDays=22
+ *   quarantine.hours=264
+ *   pathogen.infectivity=0.1
+ *   pathogen.toxigenicity=2.0
+ *   pathogen.resistance=2.0
+ *   pathogen.growth=0.5
+ *   strain.1.name=Lake Spore B     more strains, numbered from 1; unset
+ *   strain.1.infectivity=0.2       settings are taken from pathogen.*
+ *   source.1.location=Restaurant 5 (R)
+ *   source.1.time=59               more sources, numbered from 1, of strain
+ *   source.1.strain=1              0 (pathogen.*) unless given; infection.*
+ *                                  is always the first source
+ *   routine.workStart=9
+ *   routine.workEnd=16
+ *   routine.lunchHour=11
+ *   routine.eatContaminated=0.54
+ *   sim.backend=object              or engine
+ *   sim.maxTurns=5000
+ *   sim.interactionThreads=0
+ *   sim.compactHistory=false
+ *   output.byDay=true
+ *   output.binary=false
+ *   output.tag=baseline
+ */
+public class Scenario {
+
+    private static final Properties DEFAULTS = snapshot();
+    private static ConcurrentHashMap<String, Scenario> cache = new ConcurrentHashMap<String, Scenario>();
+
+    private String file;
+    private long modified;
+    private Properties props;
+    private List<String> errors = new ArrayList<String>();
+
+    private String name;
+    private int firstSeed;
+    private int lastSeed;
+    private int population;
+    private String coords;
+    private int familySize;
+    private int adultsPerFamily;
+    private String infectionSource;
+    private int infectionTime;
+    private boolean quarantine;
+    private List<String> targets = new ArrayList<String>();
+    private int interventionDay;
+    private int windowDays;
+    private int quarantineHours;
+    private double infectivity;
+    private double toxigenicity;
+    private double resistance;
+    private double growth;
+    private int workStart;
+    private int workEnd;
+    private int lunchHour;
+    private double eatContaminated;
+    private boolean engine;
+    private int maxTurns;
+    private int interactionThreads;
+    private boolean compactHistory;
+    private boolean byDay;
+    private boolean binary;
+    private String tag;
+    private List<Properties> strains = new ArrayList<Properties>();
+    private List<Properties> sources = new ArrayList<Properties>();
+
+    /*
+     * Current statics as scenario keys; taken once, before any scenario is applied
+     */
+    private static Properties snapshot(){
+        Properties res = new Properties();
+        res.setProperty("seeds", "12");
+        res.setProperty("city.population", "" + LakeTown.GENERATED_POPULATION);
+        res.setProperty("city.coords", LakeTown.FILE_COORDS);
+        res.setProperty("city.familySize", "" + LakeTown.FAMILY_SIZE);
+        res.setProperty("city.adultsPerFamily", "" + LakeTown.ADULTS_PER_FAMILY);
+        res.setProperty("infection.source", LakeTown.INFECTION_SOURCE);
+        res.setProperty("infection.time", "" + LakeTown.INFECTION_TIME);
+        res.setProperty("intervention.quarantine", "false");
+        res.setProperty("intervention.targets", "");
+        res.setProperty("intervention.day", "" + LakeTown.INTERVENTION_DAY);
+        res.setProperty("quarantine.windowDays", "" + LakeTown.QuarantineMeasure.WINDOW_DAYS);
+        res.setProperty("quarantine.hours", "" + LakeTown.QuarantineMeasure.QUARANTINE_HOURS);
+        res.setProperty("pathogen.infectivity", "" + LakeSpore.INFECTIVITY);
+        res.setProperty("pathogen.toxigenicity", "" + LakeSpore.TOXIGENICITY);
+        res.setProperty("pathogen.resistance", "" + LakeSpore.RESISTANCE);
+        res.setProperty("pathogen.growth", "" + LakeSpore.GROWTH);
+        res.setProperty("routine.workStart", "" + LakeTown.AdultRoutine.WORK_START);
+        res.setProperty("routine.workEnd", "" + LakeTown.AdultRoutine.WORK_END);
+        res.setProperty("routine.lunchHour", "" + LakeTown.AdultRoutine.LUNCH_HOUR);
+        res.setProperty("routine.eatContaminated", "" + LakeTown.Restaurant.EAT_CONTAMINATED);
+        res.setProperty("sim.backend", LakeTown.ENGINE_BACKEND ? "engine" : "object");
+        res.setProperty("sim.maxTurns", "" + LakeTown.MAX_TURNS);
+        res.setProperty("sim.interactionThreads", "" + LakeTown.INTERACTION_THREADS);
+        res.setProperty("sim.compactHistory", "" + LakeTown.COMPACT_HISTORY);
+        res.setProperty("output.byDay", "" + LakeTown.SIM_BY_DAY);
+        res.setProperty("output.binary", "" + LakeTown.BINARY_OUTPUT);
+        return res;
+    }
+
+    /*
+     * Parsed and checked scenario, reread only when the file has changed;
+     * throws IllegalArgumentException listing every problem found
+     */
+    public static Scenario load(String file) throws IOException {
+        File f = new File(file);
+        String key = f.getCanonicalPath();
+        Scenario res = cache.get(key);
+        if(res != null && res.modified == f.lastModified()){
+            return res;
+        }
+        res = new Scenario(file, f.lastModified());
+        if(!res.errors.isEmpty()){
+            throw new IllegalArgumentException(file + ": " + res.errors);
+        }
+        cache.put(key, res);
+        return res;
+    }
+
+    private Scenario(String file, long modified) throws IOException {
+        this.file = file;
+        this.modified = modified;
+        props = new Properties(DEFAULTS);
+        InputStream in = new FileInputStream(file);
+        try{
+            props.load(in);
+        }
+        finally{
+            in.close();
+        }
+        Set<String> known = new HashSet<String>(DEFAULTS.stringPropertyNames());
+        known.add("name");
+        known.add("output.tag");
+        for(String k : props.stringPropertyNames()){
+            if(!known.contains(k) && !addNumbered(k, "strain", STRAIN_KEYS, strains) && !addNumbered(k, "source", SOURCE_KEYS, sources)){
+                errors.add("unknown key " + k);
+            }
+        }
+        String base = new File(file).getName();
+        name = props.getProperty("name", base.contains(".") ? base.substring(0, base.lastIndexOf('.')) : base);
+        tag = props.getProperty("output.tag", name);
+        parseSeeds(props.getProperty("seeds").trim());
+        population = getInt("city.population", 0, Integer.MAX_VALUE);
+        coords = props.getProperty("city.coords");
+        if(population == 0 && !new File(coords).exists()){
+            errors.add("city.coords " + coords + " not found");
+        }
+        familySize = getInt("city.familySize", 1, 64);
+        adultsPerFamily = getInt("city.adultsPerFamily", 1, 64);
+        if(adultsPerFamily > familySize){
+            errors.add("city.adultsPerFamily is larger than city.familySize");
+        }
+        infectionSource = props.getProperty("infection.source");
+        infectionTime = getInt("infection.time", 0, Integer.MAX_VALUE);
+        quarantine = getBoolean("intervention.quarantine");
+        for(String site : props.getProperty("intervention.targets").split(Pattern.quote(","))){
+            site = site.trim();
+            if(site.length() == 0){
+                continue;
+            }
+            try{
+                targets.add("Restaurant " + Integer.parseInt(site) + " (R)");
+            }
+            catch(NumberFormatException e){
+                errors.add("intervention.targets has " + site + ", expected restaurant numbers");
+            }
+        }
+        if(!targets.isEmpty() && !quarantine){
+            errors.add("intervention.targets given without intervention.quarantine=true");
+        }
+        interventionDay = getInt("intervention.day", 0, Integer.MAX_VALUE / 24);
+        windowDays = getInt("quarantine.windowDays", 0, Integer.MAX_VALUE);
+        quarantineHours = getInt("quarantine.hours", 0, Short.MAX_VALUE);
+        infectivity = getDouble("pathogen.infectivity", 0.0, 1.0);
+        toxigenicity = getDouble("pathogen.toxigenicity", 0.0, Double.MAX_VALUE);
+        resistance = getDouble("pathogen.resistance", 0.0, Double.MAX_VALUE);
+        growth = getDouble("pathogen.growth", 0.0, Double.MAX_VALUE);
+        workStart = getInt("routine.workStart", 0, 23);
+        workEnd = getInt("routine.workEnd", 0, 23);
+        lunchHour = getInt("routine.lunchHour", 0, 23);
+        if(workStart > lunchHour || lunchHour > workEnd){
+            errors.add("routine.lunchHour must fall between routine.workStart and routine.workEnd");
+        }
+        eatContaminated = getDouble("routine.eatContaminated", 0.0, 1.0);
+        String backend = props.getProperty("sim.backend").trim();
+        if(!backend.equals("engine") && !backend.equals("object")){
+            errors.add("sim.backend is " + backend + ", expected engine or object");
+        }
+        engine = backend.equals("engine");
+        maxTurns = getInt("sim.maxTurns", 1, Integer.MAX_VALUE);
+        interactionThreads = getInt("sim.interactionThreads", 0, 1024);
+        compactHistory = getBoolean("sim.compactHistory");
+        byDay = getBoolean("output.byDay");
+        binary = getBoolean("output.binary");
+        checkOutbreak();
+        if(errors.isEmpty()){
+            checkLocations();
+        }
+    }
+
+    /*
+     * Sources and targets must name locations of the town. A generated town
+     * is drawn for the first seed; apart from homes its names depend only on
+     * the population, so they hold for every seed.
+     */
+    private void checkLocations(){
+        List<String> wanted = new ArrayList<String>();
+        wanted.add(infectionSource);
+        wanted.addAll(targets);
+        for(Properties source : sources){
+            wanted.add(props.getProperty(source.getProperty("location")).trim());
+        }
+        SimContext context = new SimContext(firstSeed);
+        LocationIndex index = (population > 0) ? new CityGenerator(firstSeed, population).generateIndex(context) : LakeTown.loadLocations(context, null, coords);
+        Set<String> names = new HashSet<String>();
+        for(Location loc : index.getLocations()){
+            names.add(loc.getName());
+        }
+        for(String name : wanted){
+            if(!names.contains(name)){
+                errors.add("no location named " + name + " in the town");
+            }
+        }
+    }
+
+    private static final Set<String> STRAIN_KEYS = new HashSet<String>(Arrays.asList("name", "infectivity", "toxigenicity", "resistance", "growth"));
+    private static final Set<String> SOURCE_KEYS = new HashSet<String>(Arrays.asList("location", "time", "strain"));
+
+    /*
+     * File away a key like strain.2.infectivity under entry 2 of the list;
+     * false if the key is not of that form
+     */
+    private static boolean addNumbered(String key, String prefix, Set<String> fields, List<Properties> list){
+        String[] parts = key.split(Pattern.quote("."));
+        if(parts.length != 3 || !parts[0].equals(prefix) || !fields.contains(parts[2]) || !parts[1].matches("[1-9][0-9]{0,3}")){
+            return false;
+        }
+        int n = Integer.parseInt(parts[1]);
+        while(list.size() < n){
+            list.add(null);
+        }
+        if(list.get(n - 1) == null){
+            list.set(n - 1, new Properties());
+        }
+        list.get(n - 1).setProperty(parts[2], key);
+        return true;
+    }
+
+    /*
+     * Numbered strains and sources must run 1, 2, 3... without gaps, and
+     * sources must name a location and an existing strain
+     */
+    private void checkOutbreak(){
+        if(strains.size() + 1 > Outbreak.MAX_STRAINS){
+            errors.add("more than " + Outbreak.MAX_STRAINS + " strains");
+        }
+        for(int k = 0; k < strains.size(); k++){
+            if(strains.get(k) == null){
+                errors.add("strain." + (k + 1) + " is missing");
+                continue;
+            }
+            getDouble(strainKey(k, "infectivity", "pathogen.infectivity"), 0.0, 1.0);
+            getDouble(strainKey(k, "toxigenicity", "pathogen.toxigenicity"), 0.0, Double.MAX_VALUE);
+            getDouble(strainKey(k, "resistance", "pathogen.resistance"), 0.0, Double.MAX_VALUE);
+            getDouble(strainKey(k, "growth", "pathogen.growth"), 0.0, Double.MAX_VALUE);
+        }
+        for(int k = 0; k < sources.size(); k++){
+            Properties source = sources.get(k);
+            if(source == null){
+                errors.add("source." + (k + 1) + " is missing");
+                continue;
+            }
+            if(!source.containsKey("location") || !source.containsKey("time")){
+                errors.add("source." + (k + 1) + " needs a location and a time");
+                continue;
+            }
+            getInt(source.getProperty("time"), 0, Integer.MAX_VALUE);
+            if(source.containsKey("strain")){
+                getInt(source.getProperty("strain"), 0, strains.size());
+            }
+        }
+    }
+
+    /*
+     * Key holding a strain setting, falling back to the pathogen.* key
+     */
+    private String strainKey(int k, String field, String fallback){
+        return strains.get(k).getProperty(field, fallback);
+    }
+
+    /*
+     * Strains and sources of this scenario; the standard single source when
+     * there are no numbered ones. Built from the values apply() has just set.
+     */
+    private Outbreak buildOutbreak(){
+        if(strains.isEmpty() && sources.isEmpty()){
+            return null;
+        }
+        Outbreak res = new Outbreak();
+        res.addStrain(new LakeSpore());
+        for(int k = 0; k < strains.size(); k++){
+            String strainName = strains.get(k).containsKey("name") ? props.getProperty(strainKey(k, "name", null)).trim() : "Lake Spore " + (k + 1);
+            res.addStrain(new LakeSpore(strainName,
+                Double.parseDouble(props.getProperty(strainKey(k, "infectivity", "pathogen.infectivity")).trim()),
+                Double.parseDouble(props.getProperty(strainKey(k, "toxigenicity", "pathogen.toxigenicity")).trim()),
+                Double.parseDouble(props.getProperty(strainKey(k, "resistance", "pathogen.resistance")).trim()),
+                Double.parseDouble(props.getProperty(strainKey(k, "growth", "pathogen.growth")).trim())));
+        }
+        res.addSource(infectionTime, infectionSource, 0);
+        for(Properties source : sources){
+            int strain = source.containsKey("strain") ? Integer.parseInt(props.getProperty(source.getProperty("strain")).trim()) : 0;
+            res.addSource(Integer.parseInt(props.getProperty(source.getProperty("time")).trim()), props.getProperty(source.getProperty("location")).trim(), strain);
+        }
+        return res;
+    }
+
+    private void parseSeeds(String value){
+        String[] parts = value.split(Pattern.quote("-"));
+        try{
+            firstSeed = Integer.parseInt(parts[0].trim());
+            lastSeed = (parts.length >= 2) ? Integer.parseInt(parts[1].trim()) : firstSeed;
+            if(parts.length > 2 || lastSeed < firstSeed){
+                errors.add("seeds is " + value + ", expected N or N-M with N <= M");
+            }
+        }
+        catch(NumberFormatException e){
+            errors.add("seeds is " + value + ", expected N or N-M");
+        }
+    }
+
+    private int getInt(String key, int min, int max){
+        String value = props.getProperty(key).trim();
+        try{
+            int res = Integer.parseInt(value);
+            if(res < min || res > max){
+                errors.add(key + " is " + res + ", expected " + min + " to " + max);
+            }
+            return res;
+        }
+        catch(NumberFormatException e){
+            errors.add(key + " is " + value + ", expected a whole number");
+            return min;
+        }
+    }
+
+    private double getDouble(String key, double min, double max){
+        String value = props.getProperty(key).trim();
+        try{
+            double res = Double.parseDouble(value);
+            if(!(res >= min && res <= max)){
+                errors.add(key + " is " + res + ", expected " + min + " to " + max);
+            }
+            return res;
+        }
+        catch(NumberFormatException e){
+            errors.add(key + " is " + value + ", expected a number");
+            return min;
+        }
+    }
+
+    private boolean getBoolean(String key){
+        String value = props.getProperty(key).trim();
+        if(!value.equals("true") && !value.equals("false")){
+            errors.add(key + " is " + value + ", expected true or false");
+        }
+        return value.equals("true");
+    }
+
+    /*
+     * Set LakeTown's statics for this scenario; runs must not overlap
+     */
+    public void apply(){
+        LakeTown.GENERATED_POPULATION = population;
+        LakeTown.FILE_COORDS = coords;
+        LakeTown.FAMILY_SIZE = familySize;
+        LakeTown.ADULTS_PER_FAMILY = adultsPerFamily;
+        LakeTown.INFECTION_SOURCE = infectionSource;
+        LakeTown.INFECTION_TIME = infectionTime;
+        LakeTown.INTERVENTION_DAY = interventionDay;
+        LakeTown.INTERVENTION_TIME = 24 * interventionDay;
+        LakeTown.QuarantineMeasure.WINDOW_DAYS = windowDays;
+        LakeTown.QuarantineMeasure.QUARANTINE_HOURS = quarantineHours;
+        LakeSpore.INFECTIVITY = infectivity;
+        LakeSpore.TOXIGENICITY = toxigenicity;
+        LakeSpore.RESISTANCE = resistance;
+        LakeSpore.GROWTH = growth;
+        LakeTown.AdultRoutine.setHours(workStart, workEnd, lunchHour);
+        LakeTown.Restaurant.EAT_CONTAMINATED = eatContaminated;
+        LakeTown.ENGINE_BACKEND = engine;
+        LakeTown.MAX_TURNS = maxTurns;
+        LakeTown.INTERACTION_THREADS = interactionThreads;
+        LakeTown.COMPACT_HISTORY = compactHistory;
+        LakeTown.SIM_BY_DAY = byDay;
+        LakeTown.BINARY_OUTPUT = binary;
+        LakeTown.OUTBREAK = buildOutbreak();
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public String getFile(){
+        return file;
+    }
+
+    public int getFirstSeed(){
+        return firstSeed;
+    }
+
+    public int getLastSeed(){
+        return lastSeed;
+    }
+
+    public boolean isQuarantine(){
+        return quarantine;
+    }
+
+    /*
+     * Target restaurants by name, as LakeTown.main builds them
+     */
+    public List<String> getTargets(){
+        return new ArrayList<String>(targets);
+    }
+
+    /*
+     * Output tag for one seed, e.g. files/sir_baseline_7.txt
+     */
+    public String getOutputTag(int seed){
+        return tag + "_" + seed;
+    }
+
+}
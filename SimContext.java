@@ -0,0 +1,243 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * Per-simulation state: random stream, quarantine tallies, and output files
+ * Lets several cities run in the same JVM without sharing results.
+ */
+public class SimContext {
+
+    private long seed;
+    private SplittableRandom random;
+    private double spareGaussian = 0.0;
+    private boolean hasSpareGaussian = false;
+    private int totalAffected = 0;
+    private int quarantinedHours = 0;
+    private String fileSir;
+    private String fileGeo;
+    private String fileCases;
+    private String fileEncCases;
+    private LocationIndex index = null;
+    private Map<Person, Integer> personOrdinals = new IdentityHashMap<Person, Integer>();
+    private HistoryStore history = null;
+    private ContactIndex contacts = null;
+    private CaseLog cases = null;
+    private OutputSink sink = null;
+    private InteractionPhase interactions = null;
+    private Metrics metrics = null;
+    private TickMetrics tickMetrics = null;
+
+    public SimContext(long seed){
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+        this.fileSir = LakeTown.FILE_SIR;
+        this.fileGeo = LakeTown.FILE_GEO;
+        this.fileCases = LakeTown.FILE_CASES;
+        this.fileEncCases = LakeTown.FILE_ENC_CASES;
+    }
+
+    /*
+     * Child context with an independent random stream and its own tallies
+     */
+    public SimContext split(String tag){
+        SimContext res = new SimContext(seed);
+        res.random = this.random.split();
+        res.setOutputTag(tag);
+        return res;
+    }
+
+    /*
+     * Suffix output files so concurrent runs write separately, e.g. files/sir_7.txt
+     */
+    public void setOutputTag(String tag){
+        this.fileSir = tagFile(LakeTown.FILE_SIR, tag);
+        this.fileGeo = tagFile(LakeTown.FILE_GEO, tag);
+        this.fileCases = tagFile(LakeTown.FILE_CASES, tag);
+        this.fileEncCases = tagFile(LakeTown.FILE_ENC_CASES, tag);
+    }
+
+    private static String tagFile(String file, String tag){
+        int dot = file.lastIndexOf('.');
+        if(dot < 0){
+            return file + "_" + tag;
+        }
+        return file.substring(0, dot) + "_" + tag + file.substring(dot);
+    }
+
+    public long getSeed(){
+        return seed;
+    }
+
+    public SplittableRandom getRandom(){
+        return random;
+    }
+
+    public int nextInt(int bound){
+        return random.nextInt(bound);
+    }
+
+    public double nextDouble(){
+        return random.nextDouble();
+    }
+
+    /*
+     * Standard normal sample by the polar method
+     */
+    public double nextGaussian(){
+        if(hasSpareGaussian){
+            hasSpareGaussian = false;
+            return spareGaussian;
+        }
+        double u, v, s;
+        do{
+            u = 2.0 * random.nextDouble() - 1.0;
+            v = 2.0 * random.nextDouble() - 1.0;
+            s = u * u + v * v;
+        } while(s >= 1.0 || s == 0.0);
+        double mul = Math.sqrt(-2.0 * Math.log(s) / s);
+        spareGaussian = v * mul;
+        hasSpareGaussian = true;
+        return u * mul;
+    }
+
+    public void addAffected(){
+        totalAffected++;
+    }
+
+    public void addQuarantinedHour(){
+        quarantinedHours++;
+    }
+
+    /*
+     * Carry tallies over from a restored checkpoint
+     */
+    public void setTallies(int totalAffected, int quarantinedHours){
+        this.totalAffected = totalAffected;
+        this.quarantinedHours = quarantinedHours;
+    }
+
+    public int getTotalAffected(){
+        return totalAffected;
+    }
+
+    public int getQuarantinedHours(){
+        return quarantinedHours;
+    }
+
+    public void setIndex(LocationIndex index){
+        this.index = index;
+    }
+
+    public LocationIndex getIndex(){
+        return index;
+    }
+
+    public void indexPeople(List<Person> people){
+        personOrdinals.clear();
+        for(int pidx = 0; pidx < people.size(); pidx++){
+            personOrdinals.put(people.get(pidx), pidx);
+        }
+    }
+
+    public int getOrdinal(Person person){
+        Integer idx = personOrdinals.get(person);
+        return (idx == null) ? -1 : idx;
+    }
+
+    public void setHistory(HistoryStore history){
+        this.history = history;
+    }
+
+    public HistoryStore getHistory(){
+        return history;
+    }
+
+    public void setContacts(ContactIndex contacts){
+        this.contacts = contacts;
+    }
+
+    public ContactIndex getContacts(){
+        return contacts;
+    }
+
+    /*
+     * Case reports gathered during the run, kept alongside the compact history
+     */
+    public void setCases(CaseLog cases){
+        this.cases = cases;
+    }
+
+    public CaseLog getCases(){
+        return cases;
+    }
+
+    /*
+     * Walk a person's history from the compact store if one is kept
+     */
+    public HistoryStore.Cursor history(Person person){
+        int pidx = getOrdinal(person);
+        if(history != null && pidx >= 0){
+            return history.cursor(pidx);
+        }
+        return new HistoryStore.RecordCursor(person.getHistory());
+    }
+
+    /*
+     * Deferred interaction phase, or null to interact in place
+     */
+    public void setInteractions(InteractionPhase interactions){
+        this.interactions = interactions;
+    }
+
+    public InteractionPhase getInteractions(){
+        return interactions;
+    }
+
+    /*
+     * Registry for live metrics, or null to leave the run uninstrumented
+     */
+    public void setMetrics(Metrics metrics){
+        this.metrics = metrics;
+        this.tickMetrics = (metrics == null) ? null : new TickMetrics(metrics);
+    }
+
+    public Metrics getMetrics(){
+        return metrics;
+    }
+
+    public TickMetrics getTickMetrics(){
+        return tickMetrics;
+    }
+
+    public void setSink(OutputSink sink){
+        this.sink = sink;
+    }
+
+    /*
+     * Output sink for this run, plain text through Helper unless replaced
+     */
+    public OutputSink getSink(){
+        if(sink == null){
+            sink = new TextSink(this);
+        }
+        return sink;
+    }
+
+    public String getSirFile(){
+        return fileSir;
+    }
+
+    public String getGeoFile(){
+        return fileGeo;
+    }
+
+    public String getCasesFile(){
+        return fileCases;
+    }
+
+    public String getEncCasesFile(){
+        return fileEncCases;
+    }
+
+}
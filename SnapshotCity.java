@@ -0,0 +1,188 @@
+package fishsamples;
+import fish.*;
+import java.util.*;
+
+/*
+ * A City rebuilt from per-location counts, for Helper to print
+ * Runs without fish objects (the engine, BinaryExport) keep how many people
+ * of each kind stand at each location and which locations are contaminated.
+ * Helper.printCityLine and printLocationLine then read this City as they read
+ * a live one, so every output file has Helper's own lines. Each person is a
+ * stand-in: one real fish Person per location, kind and contamination, taken
+ * into its state by the library's doInfect and doTurn (in the first age group
+ * whose course gets there), then listed as often as the count says. Carriers
+ * all hold the strain given here.
+ */
+public class SnapshotCity extends City {
+
+    public static final int CLEAN = 0;
+    public static final int CARRYING = 1;
+    public static final int INFECTED = 2;
+    public static final int RESISTANT = 3;
+    public static final int KINDS = 4;
+
+    private Pathogen strain;
+    private String[] names;
+    private double[] lats;
+    private double[] lngs;
+    private SimContext context;
+    private Location[][] sites;
+    private Person[][] standIns;
+    private City scratch = new City("Snapshot Course");
+    private int time = 0;
+    private boolean[] contaminated;
+    private int[] ends;
+    private int[] cells;
+    private int cellCount = 0;
+    private List<Location> locations = new ArrayList<Location>();
+    private People people = new People();
+
+    public SnapshotCity(SimContext context, String name, String[] names, double[] lats, double[] lngs, Pathogen strain){
+        super(name);
+        this.context = context;
+        this.names = names;
+        this.lats = lats;
+        this.lngs = lngs;
+        this.strain = strain;
+        this.sites = new Location[names.length][2];
+        this.standIns = new Person[names.length * 2][KINDS];
+        this.ends = new int[names.length * KINDS];
+        this.cells = new int[names.length * KINDS];
+    }
+
+    /*
+     * Snapshot of the locations in a LocationIndex
+     */
+    public static SnapshotCity of(SimContext context, String name, Pathogen strain){
+        LocationIndex index = context.getIndex();
+        int n = index.size();
+        String[] names = new String[n];
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for(int lidx = 0; lidx < n; lidx++){
+            names[lidx] = index.getLocation(lidx).getName();
+            lats[lidx] = index.getLat(lidx);
+            lngs[lidx] = index.getLng(lidx);
+        }
+        return new SnapshotCity(context, name, names, lats, lngs, strain);
+    }
+
+    /*
+     * Kind of a live person, as counted into a snapshot
+     */
+    public static int kindOf(Person person){
+        if(person.getState() == Person.State.INFECTED){
+            return INFECTED;
+        }
+        if(person.getState() == Person.State.RESISTANT){
+            return RESISTANT;
+        }
+        return (person.getPathogen() != null) ? CARRYING : CLEAN;
+    }
+
+    /*
+     * Show the given counts, flat as lidx * KINDS + kind, from now on
+     */
+    public void set(int time, int[] counts, boolean[] contaminated){
+        this.time = time;
+        this.contaminated = contaminated;
+        locations.clear();
+        for(int lidx = 0; lidx < names.length; lidx++){
+            locations.add(site(lidx, contaminated[lidx]));
+        }
+        cellCount = 0;
+        int total = 0;
+        for(int cell = 0; cell < counts.length; cell++){
+            if(counts[cell] > 0){
+                total += counts[cell];
+                cells[cellCount] = cell;
+                ends[cellCount] = total;
+                cellCount++;
+            }
+        }
+        people.size = total;
+    }
+
+    public int getTime(){
+        return time;
+    }
+
+    public int getHour(){
+        return time % 24;
+    }
+
+    public List<Location> getLocations(){
+        return locations;
+    }
+
+    public List<Person> getPeople(){
+        return people;
+    }
+
+    private Location site(int lidx, boolean dirty){
+        int variant = dirty ? 1 : 0;
+        if(sites[lidx][variant] == null){
+            Location loc = LakeTown.newLocation(context, "" + lidx, lats[lidx], lngs[lidx], names[lidx]);
+            if(dirty){
+                loc.doInfect(strain);
+            }
+            sites[lidx][variant] = loc;
+        }
+        return sites[lidx][variant];
+    }
+
+    private Person standIn(int cell){
+        int lidx = cell / KINDS;
+        int kind = cell % KINDS;
+        int slot = 2 * lidx + (contaminated[lidx] ? 1 : 0);
+        if(standIns[slot][kind] == null){
+            for(AgeGroup ag : AgeGroup.values()){
+                Person person = new Person("SNAPSHOT", ag, new LakeTown.ChildRoutine(), site(lidx, contaminated[lidx]));
+                if(kind != CLEAN){
+                    person.doInfect(strain);
+                }
+                int turns = 0;
+                while(kindOf(person) != kind && person.getState() != Person.State.RESISTANT && turns < ProgressionTable.MAX_TURNS){
+                    person.doTurn(scratch);
+                    turns++;
+                }
+                if(kindOf(person) == kind){
+                    standIns[slot][kind] = person;
+                    break;
+                }
+            }
+            if(standIns[slot][kind] == null){
+                throw new RuntimeException(strain.getName() + " never brings a person to snapshot kind " + kind);
+            }
+        }
+        return standIns[slot][kind];
+    }
+
+    /*
+     * Everyone in the snapshot, location by location, kind by kind
+     */
+    private class People extends AbstractList<Person> {
+        private int size = 0;
+        public int size(){
+            return size;
+        }
+        public Person get(int i){
+            if(i < 0 || i >= size){
+                throw new IndexOutOfBoundsException("" + i);
+            }
+            int lo = 0;
+            int hi = cellCount - 1;
+            while(lo < hi){
+                int mid = (lo + hi) >>> 1;
+                if(ends[mid] <= i){
+                    lo = mid + 1;
+                }
+                else{
+                    hi = mid;
+                }
+            }
+            return standIn(cells[lo]);
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package fishsamples;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/*
+ * Flat binary file of primitive arrays for engine checkpoints
+ * Writes go through one reusable buffer; reads map the file in windows of
+ * up to WINDOW bytes and copy arrays out in bulk, so restoring is a handful
+ * of memory copies rather than a parse. Values are big-endian.
+ */
+public class SnapshotFile {
+
+    public static int BUFFER_SIZE = 1 << 20;
+    public static long WINDOW = 1L << 30;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean writing;
+    private long windowStart = 0;
+
+    private SnapshotFile(FileChannel channel, boolean writing) throws IOException {
+        this.channel = channel;
+        this.writing = writing;
+        if(writing){
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        else{
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, channel.size()));
+        }
+    }
+
+    public static SnapshotFile create(String file) throws IOException {
+        File f = new File(file);
+        if(f.getParentFile() != null){
+            f.getParentFile().mkdirs();
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(0);
+        return new SnapshotFile(raf.getChannel(), true);
+    }
+
+    public static SnapshotFile open(String file) throws IOException {
+        return new SnapshotFile(new RandomAccessFile(file, "r").getChannel(), false);
+    }
+
+    /*
+     * Make room for (writing) or bring into view (reading) the next bytes
+     */
+    private void ensure(int bytes) throws IOException {
+        if(buffer.remaining() >= bytes){
+            return;
+        }
+        if(writing){
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        else{
+            windowStart += buffer.position();
+            long size = Math.min(WINDOW, channel.size() - windowStart);
+            if(size < bytes){
+                throw new EOFException("Snapshot ends early");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+        }
+    }
+
+    public void writeInt(int v) throws IOException {
+        ensure(4);
+        buffer.putInt(v);
+    }
+
+    public void writeLong(long v) throws IOException {
+        ensure(8);
+        buffer.putLong(v);
+    }
+
+    public void writeBytes(byte[] values, int n) throws IOException {
+        for(int off = 0; off < n; ){
+            ensure(1);
+            int len = Math.min(n - off, buffer.remaining());
+            buffer.put(values, off, len);
+            off += len;
+        }
+    }
+
+    public void writeShorts(short[] values, int n) throws IOException {
+        for(int off = 0; off < n; ){
+            ensure(2);
+            int len = Math.min(n - off, buffer.remaining() / 2);
+            buffer.asShortBuffer().put(values, off, len);
+            buffer.position(buffer.position() + 2 * len);
+            off += len;
+        }
+    }
+
+    public void writeInts(int[] values, int n) throws IOException {
+        for(int off = 0; off < n; ){
+            ensure(4);
+            int len = Math.min(n - off, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, off, len);
+            buffer.position(buffer.position() + 4 * len);
+            off += len;
+        }
+    }
+
+    public int readInt() throws IOException {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    public void readBytes(byte[] values, int n) throws IOException {
+        for(int off = 0; off < n; ){
+            ensure(1);
+            int len = Math.min(n - off, buffer.remaining());
+            buffer.get(values, off, len);
+            off += len;
+        }
+    }
+
+    public void readShorts(short[] values, int n) throws IOException {
+        for(int off = 0; off < n; ){
+            ensure(2);
+            int len = Math.min(n - off, buffer.remaining() / 2);
+            buffer.asShortBuffer().get(values, off, len);
+            buffer.position(buffer.position() + 2 * len);
+            off += len;
+        }
+    }
+
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        writeInt(bytes.length);
+        writeBytes(bytes, bytes.length);
+    }
+
+    public String readString() throws IOException {
+        byte[] bytes = new byte[readInt()];
+        readBytes(bytes, bytes.length);
+        return new String(bytes, UTF8);
+    }
+
+    public void readInts(int[] values, int n) throws IOException {
+        for(int off = 0; off < n; ){
+            ensure(4);
+            int len = Math.min(n - off, buffer.remaining() / 4);
+            buffer.asIntBuffer().get(values, off, len);
+            buffer.position(buffer.position() + 4 * len);
+            off += len;
+        }
+    }
+
+    public void close() throws IOException {
+        if(writing){
+            ensure(buffer.capacity());
+        }
+        channel.close();
+    }
+
+}
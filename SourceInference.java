@@ -0,0 +1,367 @@
+package fishsamples;
+import fish.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Ranks restaurants as the likely INFECTION_SOURCE from encoded cases
+ * Each line of enc_cases.txt gives the hour a person fell sick and where they
+ * were at lunch every day before that, by number only. Visits end before the
+ * person stays home sick, so each is read as a restaurant; homes have numbers
+ * of their own and cannot be told apart. The pathogen's ProgressionTable says
+ * how long exposure takes to show, so every case points back at the few
+ * lunches that fall inside its exposure window. Those lunches fill a
+ * restaurant x time-window matrix, and each restaurant is scored by the
+ * log-likelihood that the cases were exposed there.
+ * Cases exposed before anyone could have become contagious (the latent period
+ * after the first exposure) cannot be person-to-person, so they count in full;
+ * later cases count with SECONDARY_WEIGHT.
+ *
+ * Usage: SourceInference <targets> [scenario.properties] <file>...
+ * Files default to FILE_ENC_CASES, one file per replica. Cases are scored in
+ * parallel and replicas are pooled; the top restaurants are printed in the
+ * LakeTown target format and written to FILE_SOURCES.
+ * Lunch hour and pathogen are LakeTown's defaults unless a scenario is given;
+ * then they are the scenario's (its first strain), and the files default to
+ * the scenario's encoded cases for each of its seeds.
+ */
+public class SourceInference {
+
+    public static String FILE_SOURCES = "files/sources.txt";
+    public static int WINDOW_HOURS = 24;
+    public static int SLACK_HOURS = 12;
+    public static double EPSILON = 0.01;
+    public static double SECONDARY_WEIGHT = 0.5;
+    public static int CHUNK = 1024;
+
+    private int[] delays = new int[AgeGroup.values().length];
+    private int latent;
+    private int lunchHour;
+
+    public SourceInference(Pathogen pathogen, int lunchHour){
+        this.lunchHour = lunchHour;
+        latent = Integer.MAX_VALUE;
+        for(AgeGroup ag : AgeGroup.values()){
+            ProgressionTable table = ProgressionTable.get(pathogen, ag);
+            delays[ag.ordinal()] = table.getFirstHour(Person.State.INFECTED);
+            if(table.getLatentOn() >= 0){
+                latent = Math.min(latent, table.getLatentOn());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int targets = 1;
+        int first = 1;
+        Scenario scenario = null;
+        List<String> files = new ArrayList<String>();
+        if(args.length >= 1){
+            targets = Integer.parseInt(args[0]);
+        }
+        if(args.length >= 2 && args[1].endsWith(".properties")){
+            scenario = Scenario.load(args[1]);
+            scenario.apply();
+            first = 2;
+        }
+        for(int a = first; a < args.length; a++){
+            files.add(args[a]);
+        }
+        if(files.isEmpty() && scenario != null){
+            for(int seed = scenario.getFirstSeed(); seed <= scenario.getLastSeed(); seed++){
+                SimContext context = new SimContext(seed);
+                context.setOutputTag(scenario.getOutputTag(seed));
+                files.add(context.getEncCasesFile());
+            }
+        }
+        if(files.isEmpty()){
+            files.add(LakeTown.FILE_ENC_CASES);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        SourceInference inference = new SourceInference(LakeTown.getOutbreak().getStrain(0), LakeTown.AdultRoutine.LUNCH_HOUR);
+        List<List<Case>> replicas = readAll(files, pool);
+        List<Case> pooled = new ArrayList<Case>();
+        for(int r = 0; r < replicas.size(); r++){
+            pooled.addAll(replicas.get(r));
+            if(replicas.size() > 1){
+                Result res = inference.evaluate(replicas.get(r), pool);
+                System.out.println(files.get(r) + ": " + replicas.get(r).size() + " cases, top " + res.suggest(targets));
+            }
+        }
+        Result res = inference.evaluate(pooled, pool);
+        pool.shutdown();
+
+        System.out.println("Source Inference: " + pooled.size() + " cases from " + files.size() + " replica(s), " + res.getPrimary() + " primary.");
+        System.out.println("Restaurant,LogLikelihood,Attributed,FirstWindow");
+        for(int r : res.ranking()){
+            if(res.getAttributed(r) > 0.0){
+                System.out.println(String.format(Locale.US, "Restaurant %d (R),%.3f,%.3f,%d", r, res.getScore(r), res.getAttributed(r), res.getFirstWindow(r)));
+            }
+        }
+        String suggested = res.suggest(targets);
+        System.out.println("Suggested targets: " + suggested);
+        Helper.writeFileLine(FILE_SOURCES, "targets," + suggested);
+        double[][] matrix = res.getMatrix();
+        for(int r = 0; r < matrix.length; r++){
+            StringBuilder row = new StringBuilder();
+            row.append(r);
+            for(int w = 0; w < matrix[r].length; w++){
+                row.append(",").append(String.format(Locale.US, "%.3f", matrix[r][w]));
+            }
+            Helper.writeFileLine(FILE_SOURCES, row.toString());
+        }
+        Helper.closeAllFiles();
+
+    }
+
+    /*
+     * Read every replica's cases, one file per task
+     */
+    public static List<List<Case>> readAll(List<String> files, ExecutorService pool) throws Exception {
+        List<Future<List<Case>>> futures = new ArrayList<Future<List<Case>>>();
+        for(final String file : files){
+            futures.add(pool.submit(new Callable<List<Case>>(){
+                public List<Case> call() throws IOException {
+                    return read(file);
+                }
+            }));
+        }
+        List<List<Case>> res = new ArrayList<List<Case>>();
+        for(Future<List<Case>> future : futures){
+            res.add(future.get());
+        }
+        return res;
+    }
+
+    public static List<Case> read(String file) throws IOException {
+        List<Case> res = new ArrayList<Case>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while((line = reader.readLine()) != null){
+            if(line.length() > 0){
+                res.add(Case.parse(line));
+            }
+        }
+        reader.close();
+        return res;
+    }
+
+    /*
+     * Score every case against every restaurant, CHUNK cases per task
+     */
+    public Result evaluate(final List<Case> cases, ExecutorService pool) throws Exception {
+        int restaurants = 0;
+        int lastHour = 0;
+        int first = Integer.MAX_VALUE;
+        for(Case c : cases){
+            for(int visit : c.visits){
+                restaurants = Math.max(restaurants, visit + 1);
+            }
+            lastHour = Math.max(lastHour, c.timeSick);
+            if(c.isAdult()){
+                first = Math.min(first, exposedAt(c));
+            }
+        }
+        final int windows = lastHour / WINDOW_HOURS + 1;
+        final int n = restaurants;
+        final int primaryUntil = (first == Integer.MAX_VALUE || latent == Integer.MAX_VALUE) ? Integer.MIN_VALUE : first + 1 + latent;
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        for(int start = 0; start < cases.size(); start += CHUNK){
+            final List<Case> chunk = cases.subList(start, Math.min(cases.size(), start + CHUNK));
+            futures.add(pool.submit(new Callable<Result>(){
+                public Result call(){
+                    Result part = new Result(n, windows);
+                    double[] weights = new double[n];
+                    for(Case c : chunk){
+                        score(c, primaryUntil, weights, part);
+                    }
+                    return part;
+                }
+            }));
+        }
+        Result res = new Result(n, windows);
+        for(Future<Result> future : futures){
+            res.add(future.get());
+        }
+        return res;
+    }
+
+    /*
+     * Hour the case most likely ate the contaminated lunch; exposure at hour t
+     * starts the course at t + 1, as in the simulation
+     */
+    private int exposedAt(Case c){
+        return c.timeSick - 1 - delays[c.getAgeGroup().ordinal()];
+    }
+
+    private void score(Case c, int primaryUntil, double[] weights, Result out){
+        if(!c.isAdult()){
+            return;
+        }
+        int exposed = exposedAt(c);
+        Arrays.fill(weights, 0.0);
+        double total = 0.0;
+        int from = Math.max(0, (exposed - SLACK_HOURS - lunchHour + 23) / 24);
+        for(int day = from; day < c.visits.length; day++){
+            int hour = 24 * day + lunchHour;
+            int gap = Math.abs(hour - exposed);
+            if(hour > exposed + SLACK_HOURS){
+                break;
+            }
+            if(gap > SLACK_HOURS){
+                continue;
+            }
+            double w = 1.0 - (double)gap / (double)(SLACK_HOURS + 1);
+            weights[c.visits[day]] += w;
+            out.matrix[c.visits[day]][hour / WINDOW_HOURS] += w;
+            total += w;
+        }
+        double weight = (exposed < primaryUntil) ? 1.0 : SECONDARY_WEIGHT;
+        if(exposed < primaryUntil){
+            out.primary++;
+        }
+        for(int r = 0; r < weights.length; r++){
+            double p = (total > 0.0) ? weights[r] / total : 0.0;
+            out.scores[r] += weight * Math.log(EPSILON + (1.0 - EPSILON) * p);
+            out.attributed[r] += p;
+        }
+    }
+
+    /*
+     * One line of enc_cases.txt: index%age%timeSick%home%work%visits
+     */
+    public static class Case {
+        private int age;
+        private int timeSick;
+        private int home;
+        private int[] visits;
+        public static Case parse(String line){
+            Case res = new Case();
+            int[] cuts = new int[5];
+            int from = 0;
+            for(int k = 0; k < cuts.length; k++){
+                cuts[k] = line.indexOf('%', from);
+                from = cuts[k] + 1;
+            }
+            res.age = Integer.parseInt(line.substring(cuts[0] + 1, cuts[1]));
+            res.timeSick = Integer.parseInt(line.substring(cuts[1] + 1, cuts[2]));
+            String home = line.substring(cuts[2] + 1, cuts[3]);
+            res.home = home.equals("N/A") ? -1 : Integer.parseInt(home);
+            String visits = line.substring(cuts[4] + 1);
+            int count = (visits.length() == 0) ? 0 : 1;
+            for(int k = 0; k < visits.length(); k++){
+                if(visits.charAt(k) == ','){
+                    count++;
+                }
+            }
+            res.visits = new int[count];
+            int start = 0;
+            for(int v = 0; v < count; v++){
+                int end = visits.indexOf(',', start);
+                if(end < 0){
+                    end = visits.length();
+                }
+                res.visits[v] = Integer.parseInt(visits.substring(start, end));
+                start = end + 1;
+            }
+            return res;
+        }
+        /*
+         * Only adults go out to lunch; everyone else has no home or work listed
+         */
+        public boolean isAdult(){
+            return home >= 0;
+        }
+        public AgeGroup getAgeGroup(){
+            return isAdult() ? AgeGroup.ADULT : AgeGroup.CHILD;
+        }
+        public int getAge(){
+            return age;
+        }
+        public int getTimeSick(){
+            return timeSick;
+        }
+    }
+
+    /*
+     * Scores and the restaurant x window matrix, summed over cases
+     */
+    public static class Result {
+        private double[][] matrix;
+        private double[] scores;
+        private double[] attributed;
+        private int primary = 0;
+        public Result(int restaurants, int windows){
+            matrix = new double[restaurants][windows];
+            scores = new double[restaurants];
+            attributed = new double[restaurants];
+        }
+        public void add(Result other){
+            for(int r = 0; r < scores.length; r++){
+                scores[r] += other.scores[r];
+                attributed[r] += other.attributed[r];
+                for(int w = 0; w < matrix[r].length; w++){
+                    matrix[r][w] += other.matrix[r][w];
+                }
+            }
+            primary += other.primary;
+        }
+        /*
+         * Restaurant ordinals from most to least likely
+         */
+        public List<Integer> ranking(){
+            List<Integer> res = new ArrayList<Integer>();
+            for(int r = 0; r < scores.length; r++){
+                res.add(r);
+            }
+            Collections.sort(res, new Comparator<Integer>(){
+                public int compare(Integer a, Integer b){
+                    int c = Double.compare(scores[b], scores[a]);
+                    return (c != 0) ? c : Integer.compare(a, b);
+                }
+            });
+            return res;
+        }
+        /*
+         * Top restaurants as a LakeTown target list, e.g. "2,5"
+         */
+        public String suggest(int count){
+            StringBuilder res = new StringBuilder();
+            List<Integer> ranked = ranking();
+            for(int k = 0; k < Math.min(count, ranked.size()); k++){
+                if(k > 0){
+                    res.append(",");
+                }
+                res.append(ranked.get(k));
+            }
+            return res.toString();
+        }
+        /*
+         * Earliest window with any exposure pinned on the restaurant, or -1
+         */
+        public int getFirstWindow(int r){
+            for(int w = 0; w < matrix[r].length; w++){
+                if(matrix[r][w] > 0.0){
+                    return w;
+                }
+            }
+            return -1;
+        }
+        public double getScore(int r){
+            return scores[r];
+        }
+        public double getAttributed(int r){
+            return attributed[r];
+        }
+        public int getPrimary(){
+            return primary;
+        }
+        public double[][] getMatrix(){
+            return matrix;
+        }
+    }
+
+}
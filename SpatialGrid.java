@@ -0,0 +1,202 @@
+package fishsamples;
+import java.util.*;
+
+/*
+ * Uniform grid over lat/lng points for nearest-neighbour and radius queries
+ * Points are addressed by the int id they were added with.
+ * Distances are planar in degrees, which is fine at city scale.
+ */
+public class SpatialGrid {
+
+    public static double POINTS_PER_CELL = 2.0;
+
+    private int n = 0;
+    private int[] ids = new int[16];
+    private double[] lats = new double[16];
+    private double[] lngs = new double[16];
+    private double minLat, minLng, cellLat, cellLng;
+    private int rows, cols;
+    private int[] cellStart;
+    private int[] cellItems;
+
+    public void add(int id, double lat, double lng){
+        if(n == ids.length){
+            ids = Arrays.copyOf(ids, n * 2);
+            lats = Arrays.copyOf(lats, n * 2);
+            lngs = Arrays.copyOf(lngs, n * 2);
+        }
+        ids[n] = id;
+        lats[n] = lat;
+        lngs[n] = lng;
+        n++;
+    }
+
+    public int size(){
+        return n;
+    }
+
+    /*
+     * Bucket points into cells, one counting pass and one fill pass
+     */
+    public void build(){
+        minLat = Double.POSITIVE_INFINITY;
+        minLng = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < n; i++){
+            minLat = Math.min(minLat, lats[i]);
+            minLng = Math.min(minLng, lngs[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            maxLng = Math.max(maxLng, lngs[i]);
+        }
+        int side = Math.max(1, (int)Math.ceil(Math.sqrt(n / POINTS_PER_CELL)));
+        rows = side;
+        cols = side;
+        cellLat = Math.max((maxLat - minLat) / rows, 1e-9);
+        cellLng = Math.max((maxLng - minLng) / cols, 1e-9);
+        cellStart = new int[rows * cols + 1];
+        cellItems = new int[n];
+        for(int i = 0; i < n; i++){
+            cellStart[cellOf(lats[i], lngs[i]) + 1]++;
+        }
+        for(int c = 0; c < rows * cols; c++){
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = Arrays.copyOf(cellStart, rows * cols);
+        for(int i = 0; i < n; i++){
+            cellItems[fill[cellOf(lats[i], lngs[i])]++] = i;
+        }
+    }
+
+    private int rowOf(double lat){
+        return clamp((int)((lat - minLat) / cellLat), rows);
+    }
+
+    private int colOf(double lng){
+        return clamp((int)((lng - minLng) / cellLng), cols);
+    }
+
+    private int cellOf(double lat, double lng){
+        return rowOf(lat) * cols + colOf(lng);
+    }
+
+    private static int clamp(int v, int size){
+        if(v < 0){
+            return 0;
+        }
+        return (v >= size) ? size - 1 : v;
+    }
+
+    /*
+     * Fill out with the ids of the k nearest points, nearest first
+     * Returns how many were found, at most k and at most size()
+     */
+    public int nearest(double lat, double lng, int k, int[] out){
+        if(n == 0 || k <= 0){
+            return 0;
+        }
+        double[] bestDist = new double[k];
+        int found = 0;
+        int row = rowOf(lat);
+        int col = colOf(lng);
+        int maxRing = Math.max(rows, cols);
+        for(int ring = 0; ring <= maxRing; ring++){
+            for(int r = row - ring; r <= row + ring; r++){
+                if(r < 0 || r >= rows){
+                    continue;
+                }
+                boolean edgeRow = (r == row - ring || r == row + ring);
+                int step = edgeRow ? 1 : 2 * ring;
+                for(int c = col - ring; c <= col + ring; c += Math.max(step, 1)){
+                    if(c < 0 || c >= cols){
+                        continue;
+                    }
+                    int cell = r * cols + c;
+                    for(int j = cellStart[cell]; j < cellStart[cell + 1]; j++){
+                        int i = cellItems[j];
+                        double d = distSq(i, lat, lng);
+                        if(found == k && d >= bestDist[k - 1]){
+                            continue;
+                        }
+                        int pos = (found < k) ? found++ : k - 1;
+                        while(pos > 0 && bestDist[pos - 1] > d){
+                            bestDist[pos] = bestDist[pos - 1];
+                            out[pos] = out[pos - 1];
+                            pos--;
+                        }
+                        bestDist[pos] = d;
+                        out[pos] = i;
+                    }
+                }
+            }
+            if(found == k){
+                double reach = ringReach(lat, lng, row, col, ring);
+                if(reach > 0 && reach * reach >= bestDist[k - 1]){
+                    break;
+                }
+            }
+        }
+        for(int j = 0; j < found; j++){
+            out[j] = ids[out[j]];
+        }
+        return found;
+    }
+
+    /*
+     * Smallest distance from the query to any cell outside the searched rings
+     */
+    private double ringReach(double lat, double lng, int row, int col, int ring){
+        double top = minLat + (row - ring) * cellLat;
+        double bottom = minLat + (row + ring + 1) * cellLat;
+        double left = minLng + (col - ring) * cellLng;
+        double right = minLng + (col + ring + 1) * cellLng;
+        double reach = Double.POSITIVE_INFINITY;
+        if(row - ring > 0){
+            reach = Math.min(reach, lat - top);
+        }
+        if(row + ring < rows - 1){
+            reach = Math.min(reach, bottom - lat);
+        }
+        if(col - ring > 0){
+            reach = Math.min(reach, lng - left);
+        }
+        if(col + ring < cols - 1){
+            reach = Math.min(reach, right - lng);
+        }
+        return reach;
+    }
+
+    /*
+     * Ids of all points within radius, in no particular order
+     */
+    public List<Integer> within(double lat, double lng, double radius){
+        List<Integer> res = new ArrayList<Integer>();
+        if(n == 0){
+            return res;
+        }
+        double rSq = radius * radius;
+        int r0 = rowOf(lat - radius);
+        int r1 = rowOf(lat + radius);
+        int c0 = colOf(lng - radius);
+        int c1 = colOf(lng + radius);
+        for(int r = r0; r <= r1; r++){
+            for(int c = c0; c <= c1; c++){
+                int cell = r * cols + c;
+                for(int j = cellStart[cell]; j < cellStart[cell + 1]; j++){
+                    int i = cellItems[j];
+                    if(distSq(i, lat, lng) <= rSq){
+                        res.add(ids[i]);
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    private double distSq(int i, double lat, double lng){
+        double dLat = lats[i] - lat;
+        double dLng = lngs[i] - lng;
+        return dLat * dLat + dLng * dLng;
+    }
+
+}
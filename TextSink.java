@@ -0,0 +1,48 @@
+package fishsamples;
+import fish.*;
+
+/*
+ * Plain text output through Helper, the format the plotting scripts read
+ */
+public class TextSink implements OutputSink {
+
+    private SimContext context;
+    private SnapshotCity snapshot = null;
+
+    public TextSink(SimContext context){
+        this.context = context;
+    }
+
+    public void writeCity(City city){
+        Helper.printCityLine(context.getSirFile(), city);
+    }
+
+    public void writeLocations(City city){
+        Helper.printLocationLine(context.getGeoFile(), city);
+    }
+
+    /*
+     * Counts print through a SnapshotCity, so they read like a live City's
+     */
+    public void writeSnapshot(int time, int[] counts, boolean[] contaminated){
+        if(snapshot == null){
+            snapshot = SnapshotCity.of(context, "Snapshot", LakeTown.getOutbreak().getStrains().get(0));
+        }
+        snapshot.set(time, counts, contaminated);
+        writeCity(snapshot);
+        writeLocations(snapshot);
+    }
+
+    public void writeCase(String line){
+        Helper.writeFileLine(context.getCasesFile(), line);
+    }
+
+    public void writeEncodedCase(String line){
+        Helper.writeFileLine(context.getEncCasesFile(), line);
+    }
+
+    public void close(){
+        Helper.closeAllFiles();
+    }
+
+}
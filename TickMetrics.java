@@ -0,0 +1,95 @@
+package fishsamples;
+import fish.*;
+
+/*
+ * Per-tick instrumentation on top of a Metrics registry
+ * A tick is timed as a series of phases: each endPhase() charges the time
+ * since the previous mark to that phase. Allocation is measured on the
+ * simulation thread only, so interaction worker threads are not included.
+ */
+public class TickMetrics {
+
+    public static final int TURN = 0;
+    public static final int ROUTING = 1;
+    public static final int PROGRESSION = 2;
+    public static final int INTERACTIONS = 3;
+    public static final int BOOKKEEPING = 4;
+    public static final int OUTPUT = 5;
+    private static final String[] PHASES = {"turn", "routing", "progression", "interactions", "bookkeeping", "output"};
+
+    private Metrics metrics;
+    private Metrics.Histogram[] phaseTimes = new Metrics.Histogram[PHASES.length];
+    private Metrics.Histogram tickTime;
+    private Metrics.Histogram tickAllocated;
+    private Metrics.Counter ticks;
+    private Metrics.Counter moved;
+    private Metrics.Counter exposures;
+    private Metrics.Counter infections;
+    private Metrics.Gauge time;
+    private Metrics.Gauge[] states;
+    private long tickStart;
+    private long mark;
+    private long allocStart;
+
+    public TickMetrics(Metrics metrics){
+        this.metrics = metrics;
+        tickTime = metrics.histogram("tick.total_ns");
+        tickAllocated = metrics.histogram("tick.allocated_bytes");
+        ticks = metrics.counter("ticks");
+        moved = metrics.counter("people.moved");
+        exposures = metrics.counter("exposures.attempted");
+        infections = metrics.counter("infections.caused");
+        time = metrics.gauge("sim.time");
+        Person.State[] values = Person.State.values();
+        states = new Metrics.Gauge[values.length];
+        for(int s = 0; s < values.length; s++){
+            states[s] = metrics.gauge("sir." + values[s].toString().toLowerCase());
+        }
+    }
+
+    public void beginTick(){
+        allocStart = Metrics.allocatedBytes();
+        tickStart = System.nanoTime();
+        mark = tickStart;
+    }
+
+    /*
+     * Phases are registered on first use, since each backend only has some of them
+     */
+    public void endPhase(int phase){
+        long now = System.nanoTime();
+        if(phaseTimes[phase] == null){
+            phaseTimes[phase] = metrics.histogram("tick." + PHASES[phase] + "_ns");
+        }
+        phaseTimes[phase].record(now - mark);
+        mark = now;
+    }
+
+    public void endTick(int simTime){
+        tickTime.record(System.nanoTime() - tickStart);
+        if(allocStart >= 0){
+            tickAllocated.record(Metrics.allocatedBytes() - allocStart);
+        }
+        ticks.add(1);
+        time.set(simTime);
+    }
+
+    public void addMoved(long n){
+        moved.add(n);
+    }
+
+    public void addExposures(long attempted, long caused){
+        exposures.add(attempted);
+        infections.add(caused);
+    }
+
+    /*
+     * Current SIR counts, one per Person.State ordinal
+     */
+    public void setStateCounts(int[] counts){
+        for(int s = 0; s < counts.length; s++){
+            states[s].set(counts[s]);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package fishsamples.bench;
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/*
+ * Run every benchmark with the GC profiler so allocation rate per operation
+ * shows up next to the timings
+ *
+ * Usage: java -jar target/benchmarks.jar [benchmark regex]
+ */
+public class BenchRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = "fishsamples.bench.";
+        if(args.length >= 1){
+            include = args[0];
+        }
+        Options opts = new OptionsBuilder()
+            .include(include)
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(opts).run();
+    }
+
+}
@@ -0,0 +1,25 @@
+package fishsamples.bench;
+import fish.*;
+import fishsamples.*;
+import java.util.*;
+
+/*
+ * Reproducible generated cities for the benchmarks
+ */
+public class CityFixture {
+
+    public static City build(SimContext context, int population){
+        CityGenerator generator = new CityGenerator(context.getSeed(), population);
+        return generator.generate(context, "Bench " + population, false, new ArrayList<String>());
+    }
+
+    /*
+     * Advance a city to the given hour of the first day
+     */
+    public static void advanceTo(City city, int time){
+        while(city.getTime() < time){
+            city.doTurn();
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package fishsamples.bench;
+import fish.*;
+import fishsamples.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * One simulated hour of a whole city, after the outbreak has been seeded
+ * Each iteration runs the first day after seeding on a freshly built city,
+ * so every measurement covers the same hours of the same outbreak; the
+ * score is per hour.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CityTurnBenchmark {
+
+    public static final int TURNS = 24;
+
+    @Param({"1000", "10000", "100000"})
+    public int population;
+
+    private City city;
+
+    @Setup(Level.Iteration)
+    public void setup(){
+        Helper.disableWrites();
+        SimContext context = new SimContext(12);
+        city = CityFixture.build(context, population);
+        CityFixture.advanceTo(city, LakeTown.INFECTION_TIME);
+        LakeTown.initInfection(city);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TURNS)
+    public void doTurn(){
+        for(int t = 0; t < TURNS; t++){
+            city.doTurn();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package fishsamples.bench;
+import fish.*;
+import fishsamples.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/*
+ * Within-host growth: the bare expand() step and a full course in Person.doTurn
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathogenBenchmark {
+
+    public static int MAX_TURNS = 1000;
+
+    @Param({"CHILD", "ADULT"})
+    public AgeGroup ageGroup;
+
+    private LakeSpore spore;
+    private City city;
+    private int bacteria = 1000;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        Helper.disableWrites();
+        spore = new LakeSpore();
+        city = new City("Bench Pathogen");
+    }
+
+    @Benchmark
+    public int expand(){
+        return spore.expand(bacteria);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void infectionCourse(Blackhole bh){
+        Person person = new Person("TEST", ageGroup);
+        person.doInfect(spore);
+        int t = 0;
+        while(person.getState() != Person.State.RESISTANT && t < MAX_TURNS){
+            person.doTurn(city);
+            t++;
+        }
+        bh.consume(person.getResponse());
+    }
+
+}
@@ -0,0 +1,63 @@
+package fishsamples.bench;
+import fish.*;
+import fishsamples.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Lunchtime at a single contaminated restaurant, exposures included
+ * doInteractions infects part of the crowd, so the crowd, the restaurant and
+ * both random streams are rebuilt before every call, outside the timing, and
+ * every invocation sees the same lunch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestaurantBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int crowdSize;
+
+    @Param({"0.0", "0.1", "0.5"})
+    public double contagiousRatio;
+
+    private LakeTown.Restaurant restaurant;
+    private List<Person> crowd;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        Helper.disableWrites();
+    }
+
+    @Setup(Level.Invocation)
+    public void lunch(){
+        Helper.setSeed(12);
+        SimContext context = new SimContext(12);
+        City city = new City("Bench Restaurant");
+        restaurant = new LakeTown.Restaurant(context, "0", 0.0, 0.0, "Restaurant 0 (R)");
+        restaurant.doInfect(new LakeSpore());
+        crowd = new ArrayList<Person>();
+        int contagious = (int)(contagiousRatio * crowdSize);
+        for(int pidx = 0; pidx < crowdSize; pidx++){
+            Person person = new Person("B" + pidx, AgeGroup.ADULT);
+            if(pidx < contagious){
+                person.doInfect(new LakeSpore());
+                for(int t = 0; t < 24; t++){
+                    person.doTurn(city);
+                }
+            }
+            crowd.add(person);
+        }
+    }
+
+    @Benchmark
+    public List<Person> doInteractions(){
+        restaurant.doInteractions(crowd);
+        return crowd;
+    }
+
+}
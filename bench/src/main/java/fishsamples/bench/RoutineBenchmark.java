@@ -0,0 +1,47 @@
+package fishsamples.bench;
+import fish.*;
+import fishsamples.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/*
+ * Lunch choice for every adult in a 10k city at hour 11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutineBenchmark {
+
+    @Param({"10000"})
+    public int population;
+
+    private City city;
+    private List<Person> adults;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        Helper.disableWrites();
+        SimContext context = new SimContext(12);
+        city = CityFixture.build(context, population);
+        CityFixture.advanceTo(city, 11);
+        adults = new ArrayList<Person>();
+        for(Person person : city.getPeople()){
+            if(person.getRoutine() instanceof LakeTown.AdultRoutine){
+                adults.add(person);
+            }
+        }
+    }
+
+    @Benchmark
+    public void getNextLocation(Blackhole bh){
+        for(Person person : adults){
+            bh.consume(person.getRoutine().getNextLocation(person, city));
+        }
+    }
+
+}
@@ -0,0 +1,4 @@
+#!/bin/bash
+javac fish/*.java
+javac fishsamples/*.java
+java fishsamples.LakeCluster $@